@@ -0,0 +1,109 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves class names received on the wire to classes.
+ *
+ * Class.forName takes the lock of the class loader for every call. The
+ * resolver loads a name once and keeps the class in a concurrent map, so that
+ * decoding a message does not contend on the class loader. The classes are
+ * held weakly, so that the cache does not keep a class and its loader alive
+ * once it is unloaded, for example when an application is redeployed in a
+ * container.
+ *
+ * Classes are loaded with the class loader set by
+ * {@link #setClassLoader(ClassLoader)} or, by default, the loader that loaded
+ * ActiveMQLite. Changing the loader clears the cache. Names that are not in the
+ * cache are counted as misses, see {@link #getMissCount()}.
+ */
+public class ClassResolver {
+
+	private volatile ClassLoader classLoader;
+	private final ConcurrentHashMap<String, WeakReference<Class<?>>> classes = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Gets the class loader used for loading classes.
+	 *
+	 * @return the class loader or null if the default loader is used
+	 */
+	public ClassLoader getClassLoader() {
+		return classLoader;
+	}
+
+	/**
+	 * Load classes with the given class loader. The cached classes are
+	 * dropped.
+	 *
+	 * @param classLoader
+	 *            the class loader, null to use the loader of ActiveMQLite
+	 */
+	public synchronized void setClassLoader(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+		classes.clear();
+	}
+
+	/**
+	 * Gets the class with the given name.
+	 *
+	 * @param className
+	 *            the class name
+	 * @return the class
+	 * @throws ClassNotFoundException
+	 *             if the class can not be loaded
+	 */
+	public Class<?> resolve(String className) throws ClassNotFoundException {
+		WeakReference<Class<?>> ref = classes.get(className);
+		Class<?> klass = ref == null ? null : ref.get();
+		if (klass == null) {
+			misses.incrementAndGet();
+			ClassLoader loader = classLoader;
+			klass = Class.forName(className, true,
+					loader != null ? loader : ClassResolver.class
+							.getClassLoader());
+			if (loader == classLoader)
+				classes.put(className, new WeakReference<Class<?>>(klass));
+		}
+		return klass;
+	}
+
+	/**
+	 * Gets the number of names that were not found in the cache.
+	 *
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the number of cached classes that have not been unloaded.
+	 *
+	 * @return the cached class count
+	 */
+	public int getCachedCount() {
+		int count = 0;
+		for (WeakReference<Class<?>> ref : classes.values())
+			if (ref.get() != null)
+				count++;
+		return count;
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessage;
+
+/**
+ * Encodes and decodes values of a type on the wire.
+ *
+ * Codecs are registered with a tag on a JMSConnection, see
+ * {@link JMSConnection#registerCodec(int, Class, Codec)}. JMSLiteMessage writes
+ * the tag and calls {@link #encode(JMSLiteMessage, Object)} for instances of
+ * the type. The value is read back by {@link #decode(JMSLiteMessage)} when the
+ * tag is read. Codecs use the primitive methods of the message or
+ * {@link JMSLiteMessage#write(Object)} and {@link JMSLiteMessage#read()} for
+ * nested values.
+ *
+ * Both sides of a connection should register the same codecs with the same
+ * tags.
+ *
+ * @param <T>
+ *            the type of the values
+ */
+public interface Codec<T> {
+
+	/**
+	 * Encode a value into a message.
+	 *
+	 * @param message
+	 *            the message
+	 * @param value
+	 *            the value
+	 * @throws Exception
+	 *             the exception
+	 */
+	void encode(JMSLiteMessage message, T value) throws Exception;
+
+	/**
+	 * Decode a value from a message.
+	 *
+	 * @param message
+	 *            the message
+	 * @return the value
+	 * @throws Exception
+	 *             the exception
+	 */
+	T decode(JMSLiteMessage message) throws Exception;
+}
@@ -15,11 +15,17 @@
  */
 package com.jaliansystems.activeMQLite;
 
+import java.util.concurrent.ScheduledFuture;
+
 import javax.jms.Connection;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.broker.BrokerService;
 
+import com.jaliansystems.activeMQLite.impl.CodecRegistry;
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessage;
+import com.jaliansystems.activeMQLite.impl.LeaseTimer;
+import com.jaliansystems.activeMQLite.impl.MessageContext;
 import com.jaliansystems.activeMQLite.impl.ObjectRepository;
 import com.jaliansystems.activeMQLite.impl.RepositoryClient;
 import com.jaliansystems.activeMQLite.impl.RepositoryService;
@@ -103,6 +109,10 @@ public class JMSConnection {
 	private RepositoryService repositoryService;
 	private RepositoryClient client;
 	private ObjectRepository objectRepository;
+	private MessageContext messageContext;
+	private final Connection connection;
+	private final LeaseTimer leaseTimer;
+	private ScheduledFuture<?> leaseSweeper;
 
 	/**
 	 * Instantiates a new JMS connection.
@@ -118,15 +128,38 @@ public class JMSConnection {
 	public JMSConnection(String id, String messageBrokerURL) throws Exception {
 		objectRepository = new ObjectRepository(messageBrokerURL, id
 				+ "-request");
+		messageContext = new MessageContext();
 		ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(
 				messageBrokerURL);
-		Connection connection = connectionFactory.createConnection();
+		connection = connectionFactory.createConnection();
 		connection.start();
 
 		client = new RepositoryClient(connection, messageBrokerURL,
-				objectRepository);
+				objectRepository, messageContext);
 		repositoryService = new RepositoryService(connection, messageBrokerURL,
-				id, objectRepository, client);
+				id, objectRepository, client, messageContext);
+
+		leaseTimer = new LeaseTimer("JMSConnection-" + id + "-leases");
+		client.setLeaseTimer(leaseTimer);
+	}
+
+	/**
+	 * Close the connection.
+	 * 
+	 * Stops sweeping and renewing leases, stops releasing the remote objects of
+	 * collected proxies and closes the JMS connection. The published objects
+	 * and the proxies of remote objects can not be used afterwards.
+	 * 
+	 * @throws Exception
+	 *             the exception
+	 */
+	public synchronized void close() throws Exception {
+		if (leaseSweeper != null)
+			leaseSweeper.cancel(false);
+		leaseSweeper = null;
+		client.close();
+		leaseTimer.shutdown();
+		connection.close();
 	}
 
 	/**
@@ -179,4 +212,231 @@ public class JMSConnection {
 	public void publish(Object impl, Class<?> iface) {
 		repositoryService.publish(impl, iface);
 	}
+
+	/**
+	 * Use generated accessors for serializing Java beans.
+	 * 
+	 * By default the properties of beans are read and written using
+	 * reflection. When enabled, a class that calls the getters and setters
+	 * directly is generated for each bean class. Beans that are not public or
+	 * have non public accessors are still handled by reflection.
+	 * 
+	 * @param useGeneratedAccessors
+	 *            true to use generated accessors
+	 */
+	public void setUseGeneratedAccessors(boolean useGeneratedAccessors) {
+		messageContext.setUseGeneratedAccessors(useGeneratedAccessors);
+	}
+
+	/**
+	 * Use a string dictionary for encoding messages.
+	 * 
+	 * Class names, property names and the fields of object handles are
+	 * written once per message and referred by a short id afterwards. The
+	 * remote connections should be able to decode dictionary coded messages.
+	 * 
+	 * @param useStringDictionary
+	 *            true to use the dictionary
+	 */
+	public void setUseStringDictionary(boolean useStringDictionary) {
+		messageContext.setFeature(JMSLiteMessage.FEATURE_DICTIONARY,
+				useStringDictionary);
+	}
+
+	/**
+	 * Use the compact numeric encoding for messages.
+	 * 
+	 * Integers, longs and shorts are written as zigzag coded varints and
+	 * lengths as varints, so that small values take a single byte. The remote
+	 * connections should be able to decode compact messages.
+	 * 
+	 * @param useCompactEncoding
+	 *            true to use the compact encoding
+	 */
+	public void setUseCompactEncoding(boolean useCompactEncoding) {
+		messageContext.setFeature(JMSLiteMessage.FEATURE_COMPACT,
+				useCompactEncoding);
+	}
+
+	/**
+	 * Use bean schemas for encoding beans.
+	 * 
+	 * The field layout of a bean class is written once per message and the
+	 * beans carry only their values in field order. A remote connection with
+	 * a different version of the class matches the fields by name.
+	 * 
+	 * @param useBeanSchemas
+	 *            true to use bean schemas
+	 */
+	public void setUseBeanSchemas(boolean useBeanSchemas) {
+		messageContext.setFeature(JMSLiteMessage.FEATURE_SCHEMA,
+				useBeanSchemas);
+	}
+
+	/**
+	 * Write repeated objects once per message.
+	 * 
+	 * Beans, arrays, collections and maps that occur more than once in a
+	 * request or response are written as references to the first occurrence
+	 * and decoded as the same instance. This also allows cyclic object graphs.
+	 * The remote connections should be able to decode references.
+	 * 
+	 * @param useReferences
+	 *            true to use references
+	 */
+	public void setUseReferences(boolean useReferences) {
+		messageContext.setFeature(JMSLiteMessage.FEATURE_REFERENCES,
+				useReferences);
+	}
+
+	/**
+	 * Write the tags of the arguments of method calls before the arguments.
+	 * 
+	 * The remote connection looks up the target object and checks the tags
+	 * against the methods of the object before it decodes the arguments, so
+	 * that calls it rejects do not pay for decoding large arguments. The
+	 * remote connections should be able to decode such calls.
+	 * 
+	 * @param useLazyArguments
+	 *            true to write the argument tags
+	 */
+	public void setUseLazyArguments(boolean useLazyArguments) {
+		messageContext.setFeature(JMSLiteMessage.FEATURE_LAZY_ARGS,
+				useLazyArguments);
+	}
+
+	/**
+	 * Send the method of a call as its index in the method table of the
+	 * interface instead of its name.
+	 * 
+	 * The remote connection finds the method with an array lookup instead of
+	 * searching the methods of the object by name. Both connections should
+	 * use the same version of the interface, a call to a method whose
+	 * signature differs is rejected. The id is only sent to remote
+	 * connections that can decode it.
+	 * 
+	 * @param useMethodIds
+	 *            true to send method ids
+	 */
+	public void setUseMethodIds(boolean useMethodIds) {
+		messageContext.setFeature(JMSLiteMessage.FEATURE_METHOD_IDS,
+				useMethodIds);
+	}
+
+	/**
+	 * Compress message bodies above the given size.
+	 * 
+	 * Bodies are compressed with a fast LZ4 style block compressor and are
+	 * flagged so that the remote connection can detect them. Unlike ActiveMQ's
+	 * useCompression this does not use deflate and leaves small messages
+	 * alone.
+	 * 
+	 * @param compressionThreshold
+	 *            the threshold in bytes, 0 to disable compression
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		messageContext.setCompressionThreshold(compressionThreshold);
+	}
+
+	/**
+	 * Register a codec for a value type.
+	 * 
+	 * Values of the type, its subclasses or implementations are written with
+	 * the given tag and encoded by the codec instead of the bean encoding. The
+	 * remote connections should register the same codec with the same tag.
+	 * 
+	 * @param <T>
+	 *            the type of the values
+	 * @param tag
+	 *            the tag, between {@link CodecRegistry#FIRST_TAG} and
+	 *            {@link CodecRegistry#LAST_TAG}
+	 * @param type
+	 *            the type of the values
+	 * @param codec
+	 *            the codec
+	 */
+	public <T> void registerCodec(int tag, Class<T> type, Codec<T> codec) {
+		messageContext.getCodecs().register(tag, type, codec);
+	}
+
+	/**
+	 * Set the class loader used for loading the classes named in received
+	 * messages, such as bean classes and the interfaces of object handles.
+	 * 
+	 * By default the loader of ActiveMQLite is used. In a container the
+	 * loader of the application should be set.
+	 * 
+	 * @param classLoader
+	 *            the class loader, null for the default
+	 */
+	public void setClassLoader(ClassLoader classLoader) {
+		messageContext.getClassResolver().setClassLoader(classLoader);
+	}
+
+	/**
+	 * Gets the resolver used for loading the classes named in received
+	 * messages. The resolver caches the classes and counts the names that
+	 * were not cached.
+	 * 
+	 * @return the class resolver
+	 */
+	public ClassResolver getClassResolver() {
+		return messageContext.getClassResolver();
+	}
+
+	/**
+	 * Lease the handles given to remote connections.
+	 * 
+	 * Remote connections renew the leases of the handles they hold in one
+	 * message per connection every third of the lease. A handle whose lease is
+	 * not renewed, because the remote connection died or lost it without
+	 * sending a remove, is removed from this connection. The leases are
+	 * checked every sweep interval on a timer wheel.
+	 * 
+	 * The lease is sent to remote connections when they look up an object,
+	 * so it should be set before objects are published. Remote connections
+	 * of older versions do not renew leases. The timer thread for the leases
+	 * is started by the first call.
+	 * 
+	 * @param leaseDuration
+	 *            the lease in milliseconds, 0 to stop leasing
+	 * @param sweepInterval
+	 *            the interval in milliseconds at which leases are checked
+	 * @throws IllegalArgumentException
+	 *             if the lease is negative or the sweep interval is not
+	 *             positive for a lease
+	 */
+	public synchronized void setLeaseDuration(long leaseDuration,
+			long sweepInterval) {
+		objectRepository.setLeaseDuration(leaseDuration, sweepInterval);
+		if (leaseSweeper != null)
+			leaseSweeper.cancel(false);
+		leaseSweeper = null;
+		if (leaseDuration > 0)
+			leaseSweeper = leaseTimer.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					objectRepository.expireLeases(System.currentTimeMillis());
+				}
+			}, sweepInterval);
+	}
+
+	/**
+	 * Gets the number of handles removed because their leases were not
+	 * renewed.
+	 * 
+	 * @return the expired handle count
+	 */
+	public long getExpiredHandleCount() {
+		return objectRepository.getExpiredHandleCount();
+	}
+
+	/**
+	 * Gets the number of remote objects whose proxies have been garbage
+	 * collected and that are waiting to be released on the remote connection.
+	 * 
+	 * @return the pending release count
+	 */
+	public int getPendingReleaseCount() {
+		return client.getPendingReleaseCount();
+	}
 }
@@ -0,0 +1,52 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+/**
+ * Reads and writes the properties of a Java bean.
+ *
+ * Property indexes are the ones defined by the {@link BeanDescriptor} of the
+ * bean class.
+ */
+public interface BeanAccessor {
+
+	/**
+	 * Gets the value of a property.
+	 *
+	 * @param bean
+	 *            the bean
+	 * @param index
+	 *            the property index
+	 * @return the value
+	 * @throws Exception
+	 *             the exception
+	 */
+	public Object get(Object bean, int index) throws Exception;
+
+	/**
+	 * Sets the value of a property.
+	 *
+	 * @param bean
+	 *            the bean
+	 * @param index
+	 *            the property index
+	 * @param value
+	 *            the value
+	 * @throws Exception
+	 *             the exception
+	 */
+	public void set(Object bean, int index, Object value) throws Exception;
+}
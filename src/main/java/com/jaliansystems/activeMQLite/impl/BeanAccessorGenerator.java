@@ -0,0 +1,502 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Generates a BeanAccessor class for a bean at runtime.
+ *
+ * The generated class calls the getters and setters of the bean directly from
+ * a tableswitch on the property index, so that the JIT can inline the calls
+ * instead of going through Method.invoke. Classes are emitted in the Java 5
+ * class file format which does not need stack map frames.
+ *
+ * Only public beans with public accessors can be handled. For all other
+ * classes {@link #generate(BeanDescriptor)} returns null and the caller should
+ * use a {@link ReflectiveBeanAccessor}.
+ */
+public class BeanAccessorGenerator {
+
+	private static final Log log = LogFactory
+			.getLog(BeanAccessorGenerator.class);
+
+	private static final String ACCESSOR = BeanAccessor.class.getName()
+			.replace('.', '/');
+	private static final String GENERATED = ACCESSOR + "$Generated";
+	private static int counter = 0;
+
+	/** The magic number of a class file. */
+	private static final int MAGIC = 0xCAFEBABE;
+	/** The major version of Java 5 class files. */
+	private static final int JAVA_5_VERSION = 49;
+	/** The class access flag for invokespecial semantics. */
+	private static final int ACC_SUPER = 0x20;
+
+	// Constant pool tags
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	// Opcodes
+	private static final int ACONST_NULL = 0x01;
+	private static final int ILOAD_2 = 0x1c;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int ALOAD_3 = 0x2d;
+	private static final int POP = 0x57;
+	private static final int POP2 = 0x58;
+	private static final int DUP = 0x59;
+	private static final int TABLESWITCH = 0xaa;
+	private static final int ARETURN = 0xb0;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int NEW = 0xbb;
+	private static final int ATHROW = 0xbf;
+	private static final int CHECKCAST = 0xc0;
+
+	/**
+	 * A class loader that defines a single generated class. The loader sees
+	 * the classes of the bean and the BeanAccessor interface.
+	 */
+	private static class AccessorLoader extends ClassLoader {
+
+		public AccessorLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve)
+				throws ClassNotFoundException {
+			if (name.equals(BeanAccessor.class.getName()))
+				return BeanAccessor.class;
+			return super.loadClass(name, resolve);
+		}
+
+		public Class<?> define(String name, byte[] b) {
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+
+	/**
+	 * Generate an accessor for the bean described by the descriptor.
+	 *
+	 * @param descriptor
+	 *            the bean descriptor
+	 * @return the accessor or null if an accessor can not be generated
+	 */
+	public static BeanAccessor generate(BeanDescriptor descriptor) {
+		if (!isAccessible(descriptor))
+			return null;
+		String name;
+		synchronized (BeanAccessorGenerator.class) {
+			name = GENERATED + ++counter;
+		}
+		try {
+			byte[] b = new BeanAccessorGenerator(descriptor, name).toBytes();
+			ClassLoader parent = descriptor.getBeanClass().getClassLoader();
+			if (parent == null)
+				parent = BeanAccessor.class.getClassLoader();
+			Class<?> klass = new AccessorLoader(parent).define(name.replace(
+					'/', '.'), b);
+			return (BeanAccessor) klass.getConstructor().newInstance();
+		} catch (Throwable t) {
+			log.debug("Could not generate accessor for "
+					+ descriptor.getBeanClass(), t);
+			return null;
+		}
+	}
+
+	private static boolean isAccessible(BeanDescriptor descriptor) {
+		if (!isPublic(descriptor.getBeanClass()))
+			return false;
+		for (int i = 0; i < descriptor.getPropertyCount(); i++) {
+			if (!isAccessible(descriptor.getGetter(i))
+					|| !isAccessible(descriptor.getSetter(i)))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isAccessible(Method method) {
+		if (method == null)
+			return true;
+		if (!Modifier.isPublic(method.getModifiers())
+				|| !isPublic(method.getDeclaringClass())
+				|| method.getDeclaringClass().isInterface())
+			return false;
+		for (Class<?> type : method.getParameterTypes())
+			if (!isPublic(type))
+				return false;
+		return isPublic(method.getReturnType());
+	}
+
+	private static boolean isPublic(Class<?> klass) {
+		while (klass.isArray())
+			klass = klass.getComponentType();
+		return klass.isPrimitive() || Modifier.isPublic(klass.getModifiers());
+	}
+
+	private final BeanDescriptor descriptor;
+	private final String className;
+	private final String beanName;
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<String, Integer> constants = new HashMap<String, Integer>();
+	private int constantCount = 1;
+
+	private BeanAccessorGenerator(BeanDescriptor descriptor, String className) {
+		this.descriptor = descriptor;
+		this.className = className;
+		this.beanName = internalName(descriptor.getBeanClass());
+	}
+
+	private byte[] toBytes() throws IOException {
+		byte[] init = initMethod();
+		byte[] get = getMethod();
+		byte[] set = setMethod();
+		int thisClass = classRef(className);
+		int superClass = classRef("java/lang/Object");
+		int iface = classRef(ACCESSOR);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeShort(0);
+		out.writeShort(JAVA_5_VERSION);
+		out.writeShort(constantCount);
+		pool.flush();
+		poolBytes.writeTo(out);
+		out.writeShort(Modifier.PUBLIC | Modifier.FINAL | ACC_SUPER);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(iface);
+		out.writeShort(0);
+		out.writeShort(3);
+		out.write(init);
+		out.write(get);
+		out.write(set);
+		out.writeShort(0);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private byte[] initMethod() throws IOException {
+		Code code = new Code();
+		code.op(ALOAD_0);
+		code.op(INVOKESPECIAL);
+		code.u2(methodRef("java/lang/Object", "<init>", "()V"));
+		code.op(RETURN);
+		return method("<init>", "()V", code);
+	}
+
+	private byte[] getMethod() throws IOException {
+		Code code = new Code();
+		int n = descriptor.getGetterCount();
+		int[] cases = new int[n];
+		int defaultCase = 0;
+		if (n > 0) {
+			code.op(ILOAD_2);
+			int switchPos = code.tableswitch(n);
+			for (int i = 0; i < n; i++) {
+				cases[i] = code.size() - switchPos;
+				Method getter = descriptor.getGetter(i);
+				boolean isStatic = Modifier.isStatic(getter.getModifiers());
+				if (!isStatic) {
+					code.op(ALOAD_1);
+					code.op(CHECKCAST);
+					code.u2(classRef(beanName));
+				}
+				invoke(code, getter, isStatic);
+				Class<?> rtype = getter.getReturnType();
+				if (rtype == Void.TYPE)
+					code.op(ACONST_NULL);
+				else if (rtype.isPrimitive()) {
+					String boxed = internalName(boxedType(rtype));
+					code.op(INVOKESTATIC);
+					code.u2(methodRef(boxed, "valueOf", "("
+							+ descriptor(rtype) + ")L" + boxed + ";"));
+				}
+				code.op(ARETURN);
+			}
+			defaultCase = code.size() - switchPos;
+			code.patchTableswitch(switchPos, defaultCase, cases);
+		}
+		throwIllegalArgument(code);
+		return method("get", "(Ljava/lang/Object;I)Ljava/lang/Object;", code);
+	}
+
+	private byte[] setMethod() throws IOException {
+		Code code = new Code();
+		int n = descriptor.getPropertyCount();
+		int[] cases = new int[n];
+		if (n > 0) {
+			code.op(ILOAD_2);
+			int switchPos = code.tableswitch(n);
+			for (int i = 0; i < n; i++) {
+				Method setter = descriptor.getSetter(i);
+				if (setter == null) {
+					cases[i] = -1;
+					continue;
+				}
+				cases[i] = code.size() - switchPos;
+				boolean isStatic = Modifier.isStatic(setter.getModifiers());
+				if (!isStatic) {
+					code.op(ALOAD_1);
+					code.op(CHECKCAST);
+					code.u2(classRef(beanName));
+				}
+				code.op(ALOAD_3);
+				Class<?> ptype = setter.getParameterTypes()[0];
+				if (ptype.isPrimitive()) {
+					String boxed = internalName(boxedType(ptype));
+					code.op(CHECKCAST);
+					code.u2(classRef(boxed));
+					code.op(INVOKEVIRTUAL);
+					code.u2(methodRef(boxed, ptype.getName() + "Value", "()"
+							+ descriptor(ptype)));
+				} else if (ptype != Object.class) {
+					code.op(CHECKCAST);
+					code.u2(classRef(internalName(ptype)));
+				}
+				invoke(code, setter, isStatic);
+				Class<?> rtype = setter.getReturnType();
+				if (rtype == Long.TYPE || rtype == Double.TYPE)
+					code.op(POP2);
+				else if (rtype != Void.TYPE)
+					code.op(POP);
+				code.op(RETURN);
+			}
+			int defaultCase = code.size() - switchPos;
+			for (int i = 0; i < n; i++)
+				if (cases[i] == -1)
+					cases[i] = defaultCase;
+			code.patchTableswitch(switchPos, defaultCase, cases);
+		}
+		throwIllegalArgument(code);
+		return method("set", "(Ljava/lang/Object;ILjava/lang/Object;)V", code);
+	}
+
+	private void invoke(Code code, Method method, boolean isStatic)
+			throws IOException {
+		code.op(isStatic ? INVOKESTATIC : INVOKEVIRTUAL);
+		code.u2(methodRef(internalName(method.getDeclaringClass()), method
+				.getName(), descriptor(method)));
+	}
+
+	private void throwIllegalArgument(Code code) throws IOException {
+		code.op(NEW);
+		code.u2(classRef("java/lang/IllegalArgumentException"));
+		code.op(DUP);
+		code.op(INVOKESPECIAL);
+		code.u2(methodRef("java/lang/IllegalArgumentException", "<init>",
+				"()V"));
+		code.op(ATHROW);
+	}
+
+	private byte[] method(String name, String desc, Code code)
+			throws IOException {
+		int codeAttr = utf8("Code");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeShort(Modifier.PUBLIC);
+		out.writeShort(utf8(name));
+		out.writeShort(utf8(desc));
+		out.writeShort(1);
+		out.writeShort(codeAttr);
+		out.writeInt(12 + code.size());
+		out.writeShort(4);
+		out.writeShort(4);
+		out.writeInt(code.size());
+		out.write(code.toByteArray());
+		out.writeShort(0);
+		out.writeShort(0);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private int utf8(String s) throws IOException {
+		String key = "U" + s;
+		Integer index = constants.get(key);
+		if (index != null)
+			return index;
+		pool.writeByte(CONSTANT_UTF8);
+		pool.writeUTF(s);
+		return add(key, 1);
+	}
+
+	private int classRef(String name) throws IOException {
+		String key = "C" + name;
+		Integer index = constants.get(key);
+		if (index != null)
+			return index;
+		int nameIndex = utf8(name);
+		pool.writeByte(CONSTANT_CLASS);
+		pool.writeShort(nameIndex);
+		return add(key, 1);
+	}
+
+	private int methodRef(String owner, String name, String desc)
+			throws IOException {
+		String key = "M" + owner + "." + name + desc;
+		Integer index = constants.get(key);
+		if (index != null)
+			return index;
+		int ownerIndex = classRef(owner);
+		int nameIndex = utf8(name);
+		int descIndex = utf8(desc);
+		pool.writeByte(CONSTANT_NAME_AND_TYPE);
+		pool.writeShort(nameIndex);
+		pool.writeShort(descIndex);
+		int nameAndType = constantCount++;
+		pool.writeByte(CONSTANT_METHODREF);
+		pool.writeShort(ownerIndex);
+		pool.writeShort(nameAndType);
+		return add(key, 1);
+	}
+
+	private int add(String key, int slots) {
+		int index = constantCount;
+		constantCount += slots;
+		constants.put(key, index);
+		return index;
+	}
+
+	private static String internalName(Class<?> klass) {
+		if (klass.isArray())
+			return descriptor(klass);
+		return klass.getName().replace('.', '/');
+	}
+
+	private static String descriptor(Method method) {
+		StringBuilder sb = new StringBuilder("(");
+		for (Class<?> type : method.getParameterTypes())
+			sb.append(descriptor(type));
+		return sb.append(')').append(descriptor(method.getReturnType()))
+				.toString();
+	}
+
+	private static String descriptor(Class<?> klass) {
+		if (klass.isArray())
+			return klass.getName().replace('.', '/');
+		if (klass == Integer.TYPE)
+			return "I";
+		if (klass == Long.TYPE)
+			return "J";
+		if (klass == Boolean.TYPE)
+			return "Z";
+		if (klass == Double.TYPE)
+			return "D";
+		if (klass == Float.TYPE)
+			return "F";
+		if (klass == Short.TYPE)
+			return "S";
+		if (klass == Byte.TYPE)
+			return "B";
+		if (klass == Character.TYPE)
+			return "C";
+		if (klass == Void.TYPE)
+			return "V";
+		return "L" + internalName(klass) + ";";
+	}
+
+	private static Class<?> boxedType(Class<?> klass) {
+		if (klass == Integer.TYPE)
+			return Integer.class;
+		if (klass == Long.TYPE)
+			return Long.class;
+		if (klass == Boolean.TYPE)
+			return Boolean.class;
+		if (klass == Double.TYPE)
+			return Double.class;
+		if (klass == Float.TYPE)
+			return Float.class;
+		if (klass == Short.TYPE)
+			return Short.class;
+		if (klass == Byte.TYPE)
+			return Byte.class;
+		return Character.class;
+	}
+
+	/**
+	 * The byte code of a single method.
+	 */
+	private static class Code extends ByteArrayOutputStream {
+
+		public void op(int opcode) {
+			write(opcode);
+		}
+
+		public void u2(int value) {
+			write(value >> 8);
+			write(value);
+		}
+
+		public void u4(int value) {
+			u2(value >> 16);
+			u2(value);
+		}
+
+		/**
+		 * Emits a tableswitch for indexes 0 to n - 1 with place holders for
+		 * the offsets.
+		 *
+		 * @return the position of the tableswitch opcode
+		 */
+		public int tableswitch(int n) {
+			int pos = size();
+			op(TABLESWITCH);
+			while (size() % 4 != 0)
+				write(0);
+			u4(0);
+			u4(0);
+			u4(n - 1);
+			for (int i = 0; i < n; i++)
+				u4(0);
+			return pos;
+		}
+
+		public void patchTableswitch(int pos, int defaultCase, int[] cases) {
+			int p = pos + 1;
+			while (p % 4 != 0)
+				p++;
+			patch(p, defaultCase);
+			p += 12;
+			for (int i = 0; i < cases.length; i++, p += 4)
+				patch(p, cases[i]);
+		}
+
+		private void patch(int p, int value) {
+			buf[p] = (byte) (value >> 24);
+			buf[p + 1] = (byte) (value >> 16);
+			buf[p + 2] = (byte) (value >> 8);
+			buf[p + 3] = (byte) value;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Describes how a Java bean class is serialized by JMSLiteMessage.
+ *
+ * A descriptor holds the properties of a class in wire order. The first
+ * {@link #getGetterCount()} properties are the ones read through get/is
+ * methods while encoding, any remaining properties only have a setter and are
+ * used while decoding values sent by a peer with a different class layout.
+ *
+ * Property values are read and written through a {@link BeanAccessor}, see
+ * {@link #getAccessor(boolean)}.
+ *
+ * Descriptors are built once per class and cached. The cache is weakly keyed
+ * by the class and holds the descriptor softly, so that classes (and their
+ * class loaders) can still be unloaded.
+ */
+public class BeanDescriptor {
+
+	private static final Map<Class<?>, SoftReference<BeanDescriptor>> cache = Collections
+			.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<BeanDescriptor>>());
+
+	private final Class<?> klass;
+	private final String[] names;
+	private final Method[] getters;
+	private final Method[] setters;
+	private final int getterCount;
+	private final Map<String, Integer> indexes;
+	private final BeanAccessor reflectiveAccessor;
+	private volatile BeanAccessor generatedAccessor;
+	private volatile BeanSchema schema;
+	private volatile Constructor<?> constructor;
+
+	/**
+	 * Gets the descriptor for the given class, creating it if required.
+	 *
+	 * @param klass
+	 *            the bean class
+	 * @return the descriptor
+	 */
+	public static BeanDescriptor forClass(Class<?> klass) {
+		SoftReference<BeanDescriptor> ref = cache.get(klass);
+		BeanDescriptor descriptor = ref == null ? null : ref.get();
+		if (descriptor == null) {
+			descriptor = new BeanDescriptor(klass);
+			cache.put(klass, new SoftReference<BeanDescriptor>(descriptor));
+		}
+		return descriptor;
+	}
+
+	private BeanDescriptor(Class<?> klass) {
+		this.klass = klass;
+		List<String> names = new ArrayList<String>();
+		List<Method> getters = new ArrayList<Method>();
+		for (Method method : klass.getDeclaredMethods()) {
+			String name = method.getName();
+			if (!name.startsWith("get") && !name.startsWith("is")
+					|| method.getParameterTypes().length != 0)
+				continue;
+			names.add(name.startsWith("get") ? name.substring(3) : name
+					.substring(2));
+			getters.add(method);
+		}
+		getterCount = getters.size();
+
+		Map<String, Method> setterMap = new HashMap<String, Method>();
+		for (Method method : klass.getMethods()) {
+			String name = method.getName();
+			if (!name.startsWith("set")
+					|| method.getParameterTypes().length != 1)
+				continue;
+			String property = name.substring(3);
+			if (!setterMap.containsKey(property))
+				setterMap.put(property, method);
+		}
+		List<Method> setters = new ArrayList<Method>();
+		for (String name : names)
+			setters.add(setterMap.remove(name));
+		for (Map.Entry<String, Method> entry : setterMap.entrySet()) {
+			names.add(entry.getKey());
+			getters.add(null);
+			setters.add(entry.getValue());
+		}
+
+		this.names = names.toArray(new String[names.size()]);
+		this.getters = getters.toArray(new Method[getters.size()]);
+		this.setters = setters.toArray(new Method[setters.size()]);
+		indexes = new HashMap<String, Integer>();
+		for (int i = 0; i < this.names.length; i++) {
+			if (!indexes.containsKey(this.names[i]))
+				indexes.put(this.names[i], i);
+		}
+		reflectiveAccessor = new ReflectiveBeanAccessor(this);
+	}
+
+	/**
+	 * Gets an accessor for the properties of this bean.
+	 *
+	 * The generated accessor is created on first use. If the class can not be
+	 * handled by {@link BeanAccessorGenerator} the reflective accessor is
+	 * returned instead.
+	 *
+	 * @param generated
+	 *            true to use a generated accessor
+	 * @return the accessor
+	 */
+	public BeanAccessor getAccessor(boolean generated) {
+		if (!generated)
+			return reflectiveAccessor;
+		BeanAccessor accessor = generatedAccessor;
+		if (accessor == null) {
+			accessor = BeanAccessorGenerator.generate(this);
+			if (accessor == null)
+				accessor = reflectiveAccessor;
+			generatedAccessor = accessor;
+		}
+		return accessor;
+	}
+
+	/**
+	 * Gets the wire schema of this bean. The schema is created on first use.
+	 *
+	 * @return the schema
+	 */
+	public BeanSchema getSchema() {
+		BeanSchema s = schema;
+		if (s == null) {
+			s = BeanSchema.forDescriptor(this);
+			schema = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Creates an instance of the bean with its no argument constructor. The
+	 * constructor is looked up on first use.
+	 *
+	 * @return the new instance
+	 * @throws Exception
+	 *             the exception
+	 */
+	public Object newInstance() throws Exception {
+		Constructor<?> c = constructor;
+		if (c == null) {
+			c = klass.getDeclaredConstructor();
+			constructor = c;
+		}
+		return c.newInstance();
+	}
+
+	/**
+	 * Gets the bean class.
+	 *
+	 * @return the bean class
+	 */
+	public Class<?> getBeanClass() {
+		return klass;
+	}
+
+	/**
+	 * Gets the number of properties that are encoded.
+	 *
+	 * @return the getter count
+	 */
+	public int getGetterCount() {
+		return getterCount;
+	}
+
+	/**
+	 * Gets the number of properties known to this descriptor.
+	 *
+	 * @return the property count
+	 */
+	public int getPropertyCount() {
+		return names.length;
+	}
+
+	/**
+	 * Gets the name of a property.
+	 *
+	 * @param index
+	 *            the property index
+	 * @return the name
+	 */
+	public String getName(int index) {
+		return names[index];
+	}
+
+	/**
+	 * Gets the getter of a property.
+	 *
+	 * @param index
+	 *            the property index
+	 * @return the getter, null for setter only properties
+	 */
+	public Method getGetter(int index) {
+		return getters[index];
+	}
+
+	/**
+	 * Gets the setter of a property.
+	 *
+	 * @param index
+	 *            the property index
+	 * @return the setter, null for read only properties
+	 */
+	public Method getSetter(int index) {
+		return setters[index];
+	}
+
+	/**
+	 * Find the index of a property.
+	 *
+	 * @param name
+	 *            the property name
+	 * @return the index or -1 if the class has no such property
+	 */
+	public int indexOf(String name) {
+		Integer index = indexes.get(name);
+		return index == null ? -1 : index.intValue();
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import java.lang.reflect.Method;
+
+/**
+ * The field layout of a bean class as sent on the wire.
+ *
+ * A schema lists the encoded properties of a class in ordinal order together
+ * with a field type. Fields with a primitive type are written without a type
+ * tag. The schema is identified by a 64 bit hash of the class name, the field
+ * names and the field types.
+ *
+ * A schema received from a peer is bound to the local class once. If the local
+ * class has the same layout the ordinals map directly to the local properties,
+ * otherwise the fields are matched by name and type. Fields whose type differs
+ * from the local property are skipped.
+ */
+public class BeanSchema {
+
+	/** A field written with a type tag. */
+	public static final byte FIELD_OBJECT = 0;
+
+	/** An int field. */
+	public static final byte FIELD_INT = 1;
+
+	/** A long field. */
+	public static final byte FIELD_LONG = 2;
+
+	/** A short field. */
+	public static final byte FIELD_SHORT = 3;
+
+	/** A byte field. */
+	public static final byte FIELD_BYTE = 4;
+
+	/** A boolean field. */
+	public static final byte FIELD_BOOLEAN = 5;
+
+	/** A double field. */
+	public static final byte FIELD_DOUBLE = 6;
+
+	/** A float field. */
+	public static final byte FIELD_FLOAT = 7;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final String className;
+	private final String[] names;
+	private final byte[] types;
+	private final long hash;
+
+	private BeanDescriptor descriptor;
+	private int[] indexes;
+
+	/**
+	 * Create the schema of a local bean class.
+	 *
+	 * @param descriptor
+	 *            the bean descriptor
+	 * @return the schema
+	 */
+	public static BeanSchema forDescriptor(BeanDescriptor descriptor) {
+		int n = descriptor.getGetterCount();
+		String[] names = new String[n];
+		byte[] types = new byte[n];
+		for (int i = 0; i < n; i++) {
+			names[i] = descriptor.getName(i);
+			types[i] = fieldType(descriptor.getGetter(i).getReturnType());
+		}
+		BeanSchema schema = new BeanSchema(descriptor.getBeanClass()
+				.getName(), names, types);
+		int[] indexes = new int[n];
+		for (int i = 0; i < n; i++)
+			indexes[i] = i;
+		schema.descriptor = descriptor;
+		schema.indexes = indexes;
+		return schema;
+	}
+
+	/**
+	 * Instantiates a new bean schema.
+	 *
+	 * @param className
+	 *            the class name
+	 * @param names
+	 *            the field names
+	 * @param types
+	 *            the field types
+	 */
+	public BeanSchema(String className, String[] names, byte[] types) {
+		this.className = className;
+		this.names = names;
+		this.types = types;
+		long h = hash(FNV_OFFSET, className);
+		for (int i = 0; i < names.length; i++) {
+			h = hash(h, names[i]);
+			h = (h ^ types[i]) * FNV_PRIME;
+		}
+		hash = h;
+	}
+
+	/**
+	 * Bind the schema to a local class.
+	 *
+	 * @param descriptor
+	 *            the descriptor of the local class
+	 */
+	public void bind(BeanDescriptor descriptor) {
+		int[] indexes = new int[names.length];
+		boolean sameLayout = descriptor.getBeanClass().getName().equals(
+				className)
+				&& descriptor.getSchema().getHash() == hash;
+		for (int i = 0; i < names.length; i++) {
+			if (sameLayout) {
+				indexes[i] = i;
+				continue;
+			}
+			int index = descriptor.indexOf(names[i]);
+			if (index != -1 && localType(descriptor, index) != types[i])
+				index = -1;
+			indexes[i] = index;
+		}
+		synchronized (this) {
+			this.descriptor = descriptor;
+			this.indexes = indexes;
+		}
+	}
+
+	/**
+	 * Gets the field type of a local property, the type a value is set with.
+	 */
+	private static byte localType(BeanDescriptor descriptor, int index) {
+		Method setter = descriptor.getSetter(index);
+		if (setter != null)
+			return fieldType(setter.getParameterTypes()[0]);
+		return fieldType(descriptor.getGetter(index).getReturnType());
+	}
+
+	/**
+	 * Gets the descriptor of the local class this schema is bound to.
+	 *
+	 * @return the descriptor or null if the schema is not bound
+	 */
+	public synchronized BeanDescriptor getDescriptor() {
+		return descriptor;
+	}
+
+	/**
+	 * Gets the index of the local property for a field.
+	 *
+	 * @param ordinal
+	 *            the field ordinal
+	 * @return the property index or -1 if the local class does not have the
+	 *         property
+	 */
+	public synchronized int getIndex(int ordinal) {
+		return indexes[ordinal];
+	}
+
+	/**
+	 * Gets the class name.
+	 *
+	 * @return the class name
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * Gets the number of fields.
+	 *
+	 * @return the field count
+	 */
+	public int getFieldCount() {
+		return names.length;
+	}
+
+	/**
+	 * Gets the name of a field.
+	 *
+	 * @param ordinal
+	 *            the field ordinal
+	 * @return the name
+	 */
+	public String getName(int ordinal) {
+		return names[ordinal];
+	}
+
+	/**
+	 * Gets the type of a field.
+	 *
+	 * @param ordinal
+	 *            the field ordinal
+	 * @return the type
+	 */
+	public byte getType(int ordinal) {
+		return types[ordinal];
+	}
+
+	/**
+	 * Gets the schema hash.
+	 *
+	 * @return the hash
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	private static byte fieldType(Class<?> type) {
+		if (type == Integer.TYPE)
+			return FIELD_INT;
+		if (type == Long.TYPE)
+			return FIELD_LONG;
+		if (type == Short.TYPE)
+			return FIELD_SHORT;
+		if (type == Byte.TYPE)
+			return FIELD_BYTE;
+		if (type == Boolean.TYPE)
+			return FIELD_BOOLEAN;
+		if (type == Double.TYPE)
+			return FIELD_DOUBLE;
+		if (type == Float.TYPE)
+			return FIELD_FLOAT;
+		return FIELD_OBJECT;
+	}
+
+	private static long hash(long h, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			h = (h ^ (c & 0xff)) * FNV_PRIME;
+			h = (h ^ c >>> 8) * FNV_PRIME;
+		}
+		return (h ^ 0xff) * FNV_PRIME;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import java.util.Arrays;
+
+/**
+ * A fast compressor for message bodies using the LZ4 block format.
+ *
+ * A block is a sequence of tokens. Each token is followed by a run of literal
+ * bytes and a match that copies earlier output: a two byte little endian
+ * offset and the match length. The last token carries only literals. Lengths
+ * of 15 and more are continued in following bytes of 255 each.
+ *
+ * The compressor finds matches through a single hash table of four byte
+ * sequences and does not search for the longest match, trading compression
+ * ratio for speed.
+ */
+public class BlockCompressor {
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_LOG = 12;
+	private static final int SKIP_TRIGGER = 6;
+
+	private BlockCompressor() {
+	}
+
+	/**
+	 * Gets the size of the buffer required for compressing the given number
+	 * of bytes.
+	 *
+	 * @param length
+	 *            the length of the data
+	 * @return the maximum length of the compressed data
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Gets the largest size the given number of compressed bytes can
+	 * decompress to. A length byte of 255 stands for at most 255 bytes of
+	 * output, so no block expands by more than that.
+	 *
+	 * @param length
+	 *            the length of the compressed data
+	 * @return the maximum length of the data
+	 */
+	public static int maxDecompressedLength(int length) {
+		return (int) Math.min(Integer.MAX_VALUE, 255L * length + 24);
+	}
+
+	/**
+	 * Compress a block.
+	 *
+	 * @param src
+	 *            the data
+	 * @param srcOff
+	 *            the offset of the data
+	 * @param srcLen
+	 *            the length of the data
+	 * @param dst
+	 *            the buffer for the compressed data, at least
+	 *            {@link #maxCompressedLength(int)} bytes after dstOff
+	 * @param dstOff
+	 *            the offset in the buffer
+	 * @return the length of the compressed data
+	 */
+	public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst,
+			int dstOff) {
+		int end = srcOff + srcLen;
+		int anchor = srcOff;
+		int dp = dstOff;
+		if (srcLen > MF_LIMIT) {
+			int[] table = new int[1 << HASH_LOG];
+			Arrays.fill(table, -1);
+			int limit = end - MF_LIMIT;
+			int matchLimit = end - LAST_LITERALS;
+			int sp = srcOff;
+			int searches = 1 << SKIP_TRIGGER;
+			while (sp < limit) {
+				int sequence = readInt(src, sp);
+				int h = hash(sequence);
+				int ref = table[h];
+				table[h] = sp;
+				if (ref < 0 || sp - ref > MAX_OFFSET
+						|| readInt(src, ref) != sequence) {
+					sp += searches++ >>> SKIP_TRIGGER;
+					continue;
+				}
+				searches = 1 << SKIP_TRIGGER;
+				while (sp > anchor && ref > srcOff
+						&& src[sp - 1] == src[ref - 1]) {
+					sp--;
+					ref--;
+				}
+				int len = MIN_MATCH;
+				while (sp + len < matchLimit && src[sp + len] == src[ref + len])
+					len++;
+				dp = writeSequence(src, anchor, sp - anchor, dst, dp, sp - ref,
+						len);
+				sp += len;
+				anchor = sp;
+				if (sp - 2 < limit)
+					table[hash(readInt(src, sp - 2))] = sp - 2;
+			}
+		}
+		int literals = end - anchor;
+		int token = Math.min(literals, 15) << 4;
+		dst[dp++] = (byte) token;
+		dp = writeLength(dst, dp, literals - 15);
+		System.arraycopy(src, anchor, dst, dp, literals);
+		return dp + literals - dstOff;
+	}
+
+	/**
+	 * Decompress a block.
+	 *
+	 * @param src
+	 *            the compressed data
+	 * @param srcOff
+	 *            the offset of the compressed data
+	 * @param srcLen
+	 *            the length of the compressed data
+	 * @param dst
+	 *            the buffer for the data
+	 * @param dstOff
+	 *            the offset in the buffer
+	 * @param dstLen
+	 *            the length of the data
+	 */
+	public static void decompress(byte[] src, int srcOff, int srcLen,
+			byte[] dst, int dstOff, int dstLen) {
+		int sp = srcOff;
+		int end = srcOff + srcLen;
+		int dp = dstOff;
+		int dstEnd = dstOff + dstLen;
+		try {
+			while (true) {
+				int token = src[sp++] & 0xff;
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int b;
+					do {
+						b = src[sp++] & 0xff;
+						literals += b;
+					} while (b == 255);
+				}
+				if (literals > end - sp || literals > dstEnd - dp)
+					throw corrupt();
+				System.arraycopy(src, sp, dst, dp, literals);
+				sp += literals;
+				dp += literals;
+				if (sp == end)
+					break;
+				int offset = src[sp] & 0xff | (src[sp + 1] & 0xff) << 8;
+				sp += 2;
+				if (offset == 0 || offset > dp - dstOff)
+					throw corrupt();
+				int len = token & 15;
+				if (len == 15) {
+					int b;
+					do {
+						b = src[sp++] & 0xff;
+						len += b;
+					} while (b == 255);
+				}
+				len += MIN_MATCH;
+				if (len > dstEnd - dp)
+					throw corrupt();
+				int ref = dp - offset;
+				if (offset >= len) {
+					System.arraycopy(dst, ref, dst, dp, len);
+					dp += len;
+				} else {
+					for (int i = 0; i < len; i++)
+						dst[dp++] = dst[ref++];
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw corrupt();
+		}
+		if (dp != dstEnd)
+			throw corrupt();
+	}
+
+	private static int writeSequence(byte[] src, int anchor, int literals,
+			byte[] dst, int dp, int offset, int len) {
+		int matchLength = len - MIN_MATCH;
+		int token = Math.min(literals, 15) << 4 | Math.min(matchLength, 15);
+		dst[dp++] = (byte) token;
+		dp = writeLength(dst, dp, literals - 15);
+		System.arraycopy(src, anchor, dst, dp, literals);
+		dp += literals;
+		dst[dp++] = (byte) offset;
+		dst[dp++] = (byte) (offset >>> 8);
+		return writeLength(dst, dp, matchLength - 15);
+	}
+
+	private static int writeLength(byte[] dst, int dp, int remaining) {
+		if (remaining < 0)
+			return dp;
+		while (remaining >= 255) {
+			dst[dp++] = (byte) 255;
+			remaining -= 255;
+		}
+		dst[dp++] = (byte) remaining;
+		return dp;
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return b[i] & 0xff | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16
+				| b[i + 3] << 24;
+	}
+
+	private static int hash(int sequence) {
+		return sequence * -1640531535 >>> 32 - HASH_LOG;
+	}
+
+	private static IllegalArgumentException corrupt() {
+		return new IllegalArgumentException("Corrupt compressed message");
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.jaliansystems.activeMQLite.Codec;
+
+/**
+ * Maps classes to the tags they are written with.
+ *
+ * Custom {@link Codec}s are registered with a tag between {@link #FIRST_TAG}
+ * and {@link #LAST_TAG}. A codec registered for a class is also used for its
+ * subclasses and, when registered for an interface, for the classes
+ * implementing it. Such inherited codecs are used only for classes that would
+ * otherwise be written as beans, so that for example a codec for
+ * CharSequence does not change how Strings are written. Classes without a
+ * codec are written with the built in tags of JMSLiteMessage.
+ *
+ * The tag is resolved once per concrete class and cached, so that writing a
+ * value needs a single map lookup. The cache holds the classes weakly, so that
+ * it does not keep classes of unloaded class loaders alive.
+ */
+public class CodecRegistry {
+
+	/** The first tag available for custom codecs. */
+	public static final int FIRST_TAG = 64;
+
+	/** The last tag available for custom codecs. */
+	public static final int LAST_TAG = 127;
+
+	private final Codec<?>[] codecs = new Codec<?>[LAST_TAG - FIRST_TAG + 1];
+	private final Map<Class<?>, Byte> registered = new LinkedHashMap<Class<?>, Byte>();
+	private final Map<Class<?>, Byte> tags = Collections
+			.synchronizedMap(new WeakHashMap<Class<?>, Byte>());
+
+	/**
+	 * Register a codec.
+	 *
+	 * @param <T>
+	 *            the type of the values
+	 * @param tag
+	 *            the tag, between {@link #FIRST_TAG} and {@link #LAST_TAG}
+	 * @param type
+	 *            the type of the values
+	 * @param codec
+	 *            the codec
+	 * @throws IllegalArgumentException
+	 *             if the tag is out of range or already used for another type
+	 */
+	public synchronized <T> void register(int tag, Class<T> type,
+			Codec<T> codec) {
+		if (tag < FIRST_TAG || tag > LAST_TAG)
+			throw new IllegalArgumentException("Codec tag " + tag
+					+ " is not between " + FIRST_TAG + " and " + LAST_TAG);
+		Byte registeredTag = registered.get(type);
+		if (codecs[tag - FIRST_TAG] != null
+				&& (registeredTag == null || registeredTag.intValue() != tag))
+			throw new IllegalArgumentException("Codec tag " + tag
+					+ " is already used");
+		if (registeredTag != null)
+			codecs[registeredTag.intValue() - FIRST_TAG] = null;
+		codecs[tag - FIRST_TAG] = codec;
+		registered.put(type, Byte.valueOf((byte) tag));
+		tags.clear();
+	}
+
+	/**
+	 * Gets the tag for writing instances of a class.
+	 *
+	 * @param klass
+	 *            the class
+	 * @return the tag
+	 */
+	public byte getTag(Class<?> klass) {
+		Byte tag = tags.get(klass);
+		if (tag == null) {
+			tag = Byte.valueOf(resolve(klass));
+			tags.put(klass, tag);
+		}
+		return tag.byteValue();
+	}
+
+	/**
+	 * Gets the codec registered for a tag.
+	 *
+	 * @param tag
+	 *            the tag
+	 * @return the codec or null if no codec is registered for the tag
+	 */
+	@SuppressWarnings("unchecked")
+	public Codec<Object> getCodec(int tag) {
+		if (tag < FIRST_TAG || tag > LAST_TAG)
+			return null;
+		return (Codec<Object>) codecs[tag - FIRST_TAG];
+	}
+
+	private synchronized byte resolve(Class<?> klass) {
+		Byte tag = registered.get(klass);
+		if (tag != null)
+			return tag.byteValue();
+		byte builtinTag = JMSLiteMessage.getBuiltinTag(klass);
+		if (builtinTag != JMSLiteMessage.getBuiltinTag(Object.class))
+			return builtinTag;
+		for (Class<?> c = klass.getSuperclass(); c != null; c = c
+				.getSuperclass()) {
+			tag = registered.get(c);
+			if (tag != null)
+				return tag.byteValue();
+		}
+		for (Map.Entry<Class<?>, Byte> entry : registered.entrySet()) {
+			if (entry.getKey().isAssignableFrom(klass))
+				return entry.getValue().byteValue();
+		}
+		return builtinTag;
+	}
+}
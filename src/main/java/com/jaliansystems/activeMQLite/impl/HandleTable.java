@@ -0,0 +1,236 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+/**
+ * A map from int ids to ObjectHandles.
+ *
+ * The table is split into segments, each an open addressing hash table with
+ * linear probing over an int array of keys and an array of handles. An entry
+ * takes a slot in the two arrays, without a boxed key or an entry object.
+ * Removed entries are filled by moving the following entries of the probe
+ * sequence back, so the tables do not collect tombstones when handles come and
+ * go. A segment grows when it is more than half full and shrinks when it is
+ * less than an eighth full.
+ *
+ * Each segment is guarded by its own lock, so that threads working with
+ * different ids seldom contend.
+ */
+public class HandleTable {
+
+	private static final int SEGMENTS = 32;
+	private static final int MIN_CAPACITY = 16;
+
+	/**
+	 * The Class Segment.
+	 */
+	private static final class Segment {
+		private int[] keys = new int[MIN_CAPACITY];
+		private ObjectHandle[] values = new ObjectHandle[MIN_CAPACITY];
+		private int size;
+
+		private int indexOf(int key, int hash) {
+			int mask = keys.length - 1;
+			for (int i = hash & mask;; i = i + 1 & mask) {
+				if (values[i] == null)
+					return -1;
+				if (keys[i] == key)
+					return i;
+			}
+		}
+
+		public ObjectHandle get(int key, int hash) {
+			int i = indexOf(key, hash);
+			return i < 0 ? null : values[i];
+		}
+
+		public ObjectHandle put(int key, int hash, ObjectHandle value) {
+			int mask = keys.length - 1;
+			int i = hash & mask;
+			for (; values[i] != null; i = i + 1 & mask) {
+				if (keys[i] == key) {
+					ObjectHandle old = values[i];
+					values[i] = value;
+					return old;
+				}
+			}
+			keys[i] = key;
+			values[i] = value;
+			if (++size > keys.length / 2)
+				resize(keys.length * 2);
+			return null;
+		}
+
+		public ObjectHandle remove(int key, int hash, ObjectHandle expected) {
+			int i = indexOf(key, hash);
+			if (i < 0 || expected != null && values[i] != expected)
+				return null;
+			ObjectHandle old = values[i];
+			int mask = keys.length - 1;
+			int hole = i;
+			for (int j = i + 1 & mask; values[j] != null; j = j + 1 & mask) {
+				int home = mix(keys[j]) & mask;
+				if ((j - home & mask) >= (j - hole & mask)) {
+					keys[hole] = keys[j];
+					values[hole] = values[j];
+					hole = j;
+				}
+			}
+			values[hole] = null;
+			if (--size < keys.length / 8 && keys.length > MIN_CAPACITY)
+				resize(keys.length / 2);
+			return old;
+		}
+
+		private void resize(int capacity) {
+			int[] oldKeys = keys;
+			ObjectHandle[] oldValues = values;
+			keys = new int[capacity];
+			values = new ObjectHandle[capacity];
+			int mask = capacity - 1;
+			for (int j = 0; j < oldKeys.length; j++) {
+				if (oldValues[j] == null)
+					continue;
+				int i = mix(oldKeys[j]) & mask;
+				while (values[i] != null)
+					i = i + 1 & mask;
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	/**
+	 * Instantiates a new handle table.
+	 */
+	public HandleTable() {
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * Spread the bits of an id, so that sequential ids are spread over the
+	 * segments and the slots of a segment.
+	 */
+	private static int mix(int key) {
+		int h = key * 0x9e3779b9;
+		return h ^ h >>> 16;
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[hash >>> 27];
+	}
+
+	/**
+	 * Gets the handle with the given id.
+	 *
+	 * @param id
+	 *            the id
+	 * @return the handle or null if there is no handle with the id
+	 */
+	public ObjectHandle get(int id) {
+		int hash = mix(id);
+		Segment segment = segmentFor(hash);
+		synchronized (segment) {
+			return segment.get(id, hash);
+		}
+	}
+
+	/**
+	 * Put a handle into the table.
+	 *
+	 * @param id
+	 *            the id
+	 * @param handle
+	 *            the handle
+	 * @return the handle previously stored with the id or null
+	 */
+	public ObjectHandle put(int id, ObjectHandle handle) {
+		if (handle == null)
+			throw new NullPointerException("handle");
+		int hash = mix(id);
+		Segment segment = segmentFor(hash);
+		synchronized (segment) {
+			return segment.put(id, hash, handle);
+		}
+	}
+
+	/**
+	 * Remove the handle with the given id.
+	 *
+	 * @param id
+	 *            the id
+	 * @return the removed handle or null if there is no handle with the id
+	 */
+	public ObjectHandle remove(int id) {
+		int hash = mix(id);
+		Segment segment = segmentFor(hash);
+		synchronized (segment) {
+			return segment.remove(id, hash, null);
+		}
+	}
+
+	/**
+	 * Remove the handle with the given id if it is the given handle.
+	 *
+	 * @param id
+	 *            the id
+	 * @param handle
+	 *            the handle expected in the table
+	 * @return true if the handle was removed
+	 */
+	public boolean remove(int id, ObjectHandle handle) {
+		int hash = mix(id);
+		Segment segment = segmentFor(hash);
+		synchronized (segment) {
+			return segment.remove(id, hash, handle) != null;
+		}
+	}
+
+	/**
+	 * Gets the number of handles in the table.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Estimate the memory used by the table itself, not counting the
+	 * handles. Assumes 4 byte references and 16 byte array headers, which is
+	 * the layout of a 64 bit JVM with compressed references.
+	 *
+	 * @return the estimated size in bytes
+	 */
+	public long getMemoryFootprint() {
+		long bytes = 16 + 4L * segments.length;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				bytes += 24 + 2 * 16 + 8L * segment.keys.length;
+			}
+		}
+		return bytes;
+	}
+}
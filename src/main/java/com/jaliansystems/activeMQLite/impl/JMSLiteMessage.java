@@ -15,11 +15,31 @@
  */
 package com.jaliansystems.activeMQLite.impl;
 
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
+import javax.jms.Destination;
 import javax.jms.JMSException;
 
 import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.util.ByteSequence;
+
+import com.jaliansystems.activeMQLite.Codec;
 
 /**
  * JMSLiteMessage is on the wire representation of Java objects.
@@ -27,8 +47,19 @@ import org.apache.activemq.command.ActiveMQBytesMessage;
  * Each message contains a byte representing the type of Object and the value of
  * the object. ObjectHandles represent remote(or local) objects that implemented
  * exported interfaces.
+ * 
+ * A message encodes into and decodes from a byte array of its own and does not
+ * depend on JMS. A message to be sent is converted to an ActiveMQBytesMessage
+ * by {@link #toJMSMessage()}, a received message is decoded directly from the
+ * content of the ActiveMQBytesMessage. {@link #toByteArray()},
+ * {@link #writeTo(ByteBuffer)} and the byte array and ByteBuffer constructors
+ * allow using the encoding without JMS.
+ * 
+ * The primitive values are written in big endian order and strings in the
+ * modified UTF-8 of DataOutput, so that the body is same as that of an
+ * ActiveMQBytesMessage written with the same calls.
  */
-public class JMSLiteMessage extends ActiveMQBytesMessage {
+public class JMSLiteMessage {
 
 	/** The Constant INTEGER. */
 	private static final byte INTEGER = 1;
@@ -66,10 +97,292 @@ public class JMSLiteMessage extends ActiveMQBytesMessage {
 	/** The Constant OBJECTHANDLE. */
 	private static final byte OBJECTHANDLE = 12;
 
+	/** The Constant ARRAY_INT. */
+	private static final byte ARRAY_INT = 13;
+
+	/** The Constant ARRAY_LONG. */
+	private static final byte ARRAY_LONG = 14;
+
+	/** The Constant ARRAY_DOUBLE. */
+	private static final byte ARRAY_DOUBLE = 15;
+
+	/** The Constant ARRAY_FLOAT. */
+	private static final byte ARRAY_FLOAT = 16;
+
+	/** The Constant ARRAY_SHORT. */
+	private static final byte ARRAY_SHORT = 17;
+
+	/** The Constant ARRAY_BYTE. */
+	private static final byte ARRAY_BYTE = 18;
+
+	/** The Constant ARRAY_BOOLEAN. */
+	private static final byte ARRAY_BOOLEAN = 19;
+
+	/** The Constant ARRAY_CHAR. */
+	private static final byte ARRAY_CHAR = 20;
+
+	/** The Constant SYMBOL. A dictionary coded string. */
+	private static final byte SYMBOL = 21;
+
+	/** The Constant LONG_STRING. A string with a 32 bit length. */
+	private static final byte LONG_STRING = 22;
+
+	/** The Constant LIST. */
+	private static final byte LIST = 23;
+
+	/** The Constant SET. */
+	private static final byte SET = 24;
+
+	/** The Constant MAP. */
+	private static final byte MAP = 25;
+
+	/** The Constant BEAN. A bean written with a {@link BeanSchema}. */
+	private static final byte BEAN = 26;
+
+	/** The Constant ENUM. The class name and the ordinal of the constant. */
+	private static final byte ENUM = 27;
+
+	/** The Constant CHAR. */
+	private static final byte CHAR = 28;
+
+	/** The Constant BIG_INTEGER. The two's complement bytes of the value. */
+	private static final byte BIG_INTEGER = 29;
+
+	/** The Constant BIG_DECIMAL. The scale and the unscaled value. */
+	private static final byte BIG_DECIMAL = 30;
+
+	/** The Constant DATE. Seconds and nanoseconds since the epoch. */
+	private static final byte DATE = 31;
+
+	/** The Constant TIMESTAMP. A java.sql.Timestamp written as a DATE. */
+	private static final byte TIMESTAMP = 32;
+
+	/** The Constant UUID_VALUE. The 16 bytes of a UUID. */
+	private static final byte UUID_VALUE = 33;
+
+	/**
+	 * The Constant REFERENCE. An object written earlier in the message,
+	 * referred by the order in which it was written.
+	 */
+	private static final byte REFERENCE = 34;
+
+	/**
+	 * The Constant ARGS. The arguments of a method call: the count, the tag of
+	 * each argument and the arguments.
+	 */
+	private static final byte ARGS = 35;
+
+	/**
+	 * The Constant METHOD_ID. The method of a call given by its index in the
+	 * {@link MethodTable} of the interface and its signature hash.
+	 */
+	private static final byte METHOD_ID = 36;
+
+	/** Encoding of a LONG_STRING with one byte per character. */
+	private static final byte LATIN_1 = 0;
+
+	/** Encoding of a LONG_STRING in UTF-8. */
+	private static final byte UTF_8 = 1;
+
+	/**
+	 * The largest modified UTF-8 encoding of a string written as STRING, the
+	 * limit of writeUTF.
+	 */
+	private static final int MAX_UTF_LENGTH = 65535;
+
+	/**
+	 * The JMS property that carries the features used for encoding the
+	 * message. Messages without the property use the plain encoding.
+	 */
+	public static final String FEATURES_PROPERTY = "JMSLiteFeatures";
+
+	/**
+	 * The JMS property of a request that carries the features its sender can
+	 * decode, which the response may use. Requests of an older version do not
+	 * have it and get plain responses.
+	 */
+	public static final String ACCEPTS_PROPERTY = "JMSLiteAccepts";
+
+	/**
+	 * Class names, property names and object handle fields are written once
+	 * per message and referred by an id afterwards.
+	 */
+	public static final int FEATURE_DICTIONARY = 1;
+
+	/**
+	 * Integers, longs and shorts are written as zigzag coded varints. Array
+	 * lengths and property counts are written as varints.
+	 */
+	public static final int FEATURE_COMPACT = 2;
+
+	/**
+	 * Beans are written as BEAN. The field layout of a class is written once
+	 * per message and instances carry only their values in field order.
+	 */
+	public static final int FEATURE_SCHEMA = 4;
+
+	/**
+	 * Set in the features property of a message whose body is compressed by
+	 * {@link BlockCompressor}. The compressed body starts with the length of
+	 * the uncompressed body.
+	 */
+	public static final int FLAG_COMPRESSED = 8;
+
+	/**
+	 * Beans, arrays, collections and maps that occur more than once in a
+	 * message are written once and referred by a REFERENCE afterwards. The
+	 * decoded graph shares the instances in the same way, so cyclic graphs can
+	 * be written.
+	 */
+	public static final int FEATURE_REFERENCES = 16;
+
+	/**
+	 * The arguments of a method call are written as ARGS, so that the receiver
+	 * can check them against the methods of the target by their tags before
+	 * decoding them.
+	 */
+	public static final int FEATURE_LAZY_ARGS = 32;
+
+	/**
+	 * The method of a call is written as METHOD_ID, its index in the method
+	 * table of the interface, instead of its name.
+	 */
+	public static final int FEATURE_METHOD_IDS = 64;
+
+	/**
+	 * Told by peers that decode strings written as LONG_STRING. Strings whose
+	 * encoding does not fit into writeUTF are not written to peers that told
+	 * their features without it.
+	 */
+	public static final int FLAG_LONG_STRINGS = 128;
+
+	/**
+	 * Told by peers that accept a REMOVE without a reply destination and do
+	 * not answer it.
+	 */
+	public static final int FLAG_ONE_WAY_REMOVES = 256;
+
+	/**
+	 * The version of the message format, exchanged by connections when an
+	 * object is looked up.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The features this version can decode. {@link #FLAG_COMPRESSED} stands
+	 * for compressed bodies, {@link #FLAG_LONG_STRINGS} for LONG_STRING and
+	 * {@link #FLAG_ONE_WAY_REMOVES} for removes without a reply.
+	 */
+	public static final int SUPPORTED_FEATURES = FEATURE_DICTIONARY
+			| FEATURE_COMPACT | FEATURE_SCHEMA | FLAG_COMPRESSED
+			| FEATURE_REFERENCES | FEATURE_LAZY_ARGS | FEATURE_METHOD_IDS
+			| FLAG_LONG_STRINGS | FLAG_ONE_WAY_REMOVES;
+
+	private static final int INITIAL_SIZE = 256;
+
+	private final MessageContext context;
+	private final int features;
+	private Map<String, Integer> writeDictionary;
+	private List<String> readDictionary;
+	private Map<BeanSchema, Integer> writeSchemas;
+	private List<BeanSchema> readSchemas;
+	private IdentityHashMap<Object, Integer> writeReferences;
+	private List<Object> readReferences;
+
+	private byte[] buf;
+	private int start;
+	private int pos;
+	private int limit;
+	private boolean writing;
+	private boolean compressible = true;
+	private boolean longStrings = true;
+	private int accepts;
+
+	private String correlationID;
+	private Destination replyTo;
+	private Destination destination;
+
 	/**
 	 * Instantiates a new jMS lite message.
 	 */
 	public JMSLiteMessage() {
+		this(MessageContext.getDefault());
+	}
+
+	/**
+	 * Instantiates a new JMS lite message.
+	 * 
+	 * @param context
+	 *            the message context
+	 */
+	public JMSLiteMessage(MessageContext context) {
+		this(context, context.getFeatures());
+	}
+
+	/**
+	 * Instantiates a new JMS lite message that is encoded with the given
+	 * features.
+	 * 
+	 * @param context
+	 *            the message context
+	 * @param features
+	 *            the features
+	 */
+	public JMSLiteMessage(MessageContext context, int features) {
+		this.context = context;
+		this.features = features;
+		buf = new byte[INITIAL_SIZE];
+		writing = true;
+	}
+
+	/**
+	 * Instantiates a new JMS lite message for decoding the given bytes. The
+	 * bytes are not copied.
+	 * 
+	 * @param data
+	 *            the data
+	 * @param offset
+	 *            the offset of the body
+	 * @param length
+	 *            the length of the body
+	 * @param context
+	 *            the message context
+	 * @param features
+	 *            the features the body was encoded with
+	 */
+	public JMSLiteMessage(byte[] data, int offset, int length,
+			MessageContext context, int features) {
+		this.context = context;
+		this.features = features;
+		buf = data;
+		start = pos = offset;
+		limit = offset + length;
+	}
+
+	/**
+	 * Instantiates a new JMS lite message for decoding the remaining bytes of
+	 * the buffer. A heap buffer is decoded in place.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 * @param context
+	 *            the message context
+	 * @param features
+	 *            the features the body was encoded with
+	 */
+	public JMSLiteMessage(ByteBuffer buffer, MessageContext context,
+			int features) {
+		this.context = context;
+		this.features = features;
+		if (buffer.hasArray()) {
+			buf = buffer.array();
+			start = buffer.arrayOffset() + buffer.position();
+		} else {
+			buf = new byte[buffer.remaining()];
+			buffer.duplicate().get(buf);
+		}
+		pos = start;
+		limit = start + buffer.remaining();
 	}
 
 	/**
@@ -81,10 +394,47 @@ public class JMSLiteMessage extends ActiveMQBytesMessage {
 	 *             the exception
 	 */
 	public JMSLiteMessage(ActiveMQBytesMessage message) throws Exception {
-		setContent(message.getContent());
-		setJMSCorrelationID(message.getJMSCorrelationID());
-		setJMSReplyTo(message.getJMSReplyTo());
-		reset();
+		this(message, MessageContext.getDefault());
+	}
+
+	/**
+	 * Instantiates a new JMS lite message for decoding a received message. The
+	 * content of the message is decoded in place unless it is compressed.
+	 * 
+	 * @param message
+	 *            the message
+	 * @param context
+	 *            the message context
+	 * @throws Exception
+	 *             the exception
+	 */
+	public JMSLiteMessage(ActiveMQBytesMessage message, MessageContext context)
+			throws Exception {
+		this.context = context;
+		int flags = message.propertyExists(FEATURES_PROPERTY) ? message
+				.getIntProperty(FEATURES_PROPERTY) : 0;
+		features = flags & ~FLAG_COMPRESSED;
+		if (message.propertyExists(ACCEPTS_PROPERTY))
+			accepts = message.getIntProperty(ACCEPTS_PROPERTY);
+		ByteSequence content = message.getContent();
+		if (message.isCompressed()) {
+			message.reset();
+			buf = new byte[(int) message.getBodyLength()];
+			message.readBytes(buf);
+			limit = buf.length;
+		} else if (content == null) {
+			buf = new byte[0];
+		} else if ((flags & FLAG_COMPRESSED) != 0) {
+			buf = decompress(content);
+			limit = buf.length;
+		} else {
+			buf = content.getData();
+			start = pos = content.getOffset();
+			limit = start + content.getLength();
+		}
+		correlationID = message.getJMSCorrelationID();
+		replyTo = message.getJMSReplyTo();
+		destination = message.getJMSDestination();
 	}
 
 	/**
@@ -94,7 +444,258 @@ public class JMSLiteMessage extends ActiveMQBytesMessage {
 	 *             the exception
 	 */
 	public void makeReadable() throws Exception {
-		reset();
+		finishWriting();
+		pos = start;
+		readDictionary = null;
+		readSchemas = null;
+		readReferences = null;
+	}
+
+	/**
+	 * Create the JMS message to be sent for this message.
+	 * 
+	 * Writing the message is finished. The body is compressed if it is larger
+	 * than the compression threshold of the context and shrinks.
+	 * 
+	 * @return the JMS message
+	 * @throws JMSException
+	 *             the jMS exception
+	 */
+	public ActiveMQBytesMessage toJMSMessage() throws JMSException {
+		finishWriting();
+		ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+		int flags = features;
+		ByteSequence content = compress();
+		if (content != null)
+			flags |= FLAG_COMPRESSED;
+		else
+			content = new ByteSequence(buf, start, limit - start);
+		// Setting a property starts writing the body of an
+		// ActiveMQBytesMessage, so the content is set after a reset.
+		if (flags != 0)
+			message.setIntProperty(FEATURES_PROPERTY, flags);
+		if (accepts != 0)
+			message.setIntProperty(ACCEPTS_PROPERTY, accepts);
+		message.reset();
+		message.setContent(content);
+		message.setJMSCorrelationID(correlationID);
+		message.setJMSReplyTo(replyTo);
+		message.setJMSDestination(destination);
+		return message;
+	}
+
+	/**
+	 * Gets the body of the message. Writing the message is finished.
+	 * 
+	 * @return the body
+	 */
+	public byte[] toByteArray() {
+		finishWriting();
+		if (start == 0 && limit == buf.length)
+			return buf;
+		byte[] b = new byte[limit - start];
+		System.arraycopy(buf, start, b, 0, b.length);
+		return b;
+	}
+
+	/**
+	 * Put the body of the message into a buffer. Writing the message is
+	 * finished.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		finishWriting();
+		buffer.put(buf, start, limit - start);
+	}
+
+	/**
+	 * Gets the length of the body.
+	 * 
+	 * @return the body length
+	 */
+	public long getBodyLength() {
+		return writing ? pos : limit - start;
+	}
+
+	/**
+	 * Switch from writing to reading. The body stays in the buffer it was
+	 * written to, which is handed to the JMS message without a copy.
+	 */
+	private void finishWriting() {
+		if (!writing)
+			return;
+		writing = false;
+		limit = pos;
+		pos = 0;
+	}
+
+	/**
+	 * Compress the body if it is larger than the compression threshold of the
+	 * context.
+	 * 
+	 * @return the compressed body or null if the body is not compressed
+	 */
+	private ByteSequence compress() {
+		int threshold = context.getCompressionThreshold();
+		int size = limit - start;
+		if (!compressible || threshold <= 0 || size < threshold)
+			return null;
+		byte[] compressed = new byte[4 + BlockCompressor
+				.maxCompressedLength(size)];
+		int len = BlockCompressor.compress(buf, start, size, compressed, 4) + 4;
+		if (len >= size)
+			return null;
+		compressed[0] = (byte) (size >>> 24);
+		compressed[1] = (byte) (size >>> 16);
+		compressed[2] = (byte) (size >>> 8);
+		compressed[3] = (byte) size;
+		return new ByteSequence(compressed, 0, len);
+	}
+
+	private static byte[] decompress(ByteSequence content) {
+		byte[] b = content.data;
+		int off = content.offset;
+		if (content.length < 4)
+			throw new IllegalArgumentException("Corrupt compressed message");
+		int size = (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16
+				| (b[off + 2] & 0xff) << 8 | b[off + 3] & 0xff;
+		if (size < 0
+				|| size > BlockCompressor
+						.maxDecompressedLength(content.length - 4))
+			throw new IllegalArgumentException("Corrupt compressed message");
+		byte[] data = new byte[size];
+		BlockCompressor.decompress(b, off + 4, content.length - 4, data, 0,
+				size);
+		return data;
+	}
+
+	/**
+	 * Gets the correlation id.
+	 * 
+	 * @return the correlation id
+	 */
+	public String getJMSCorrelationID() {
+		return correlationID;
+	}
+
+	/**
+	 * Sets the correlation id.
+	 * 
+	 * @param correlationID
+	 *            the correlation id
+	 */
+	public void setJMSCorrelationID(String correlationID) {
+		this.correlationID = correlationID;
+	}
+
+	/**
+	 * Gets the destination for replies.
+	 * 
+	 * @return the reply to destination
+	 */
+	public Destination getJMSReplyTo() {
+		return replyTo;
+	}
+
+	/**
+	 * Sets the destination for replies.
+	 * 
+	 * @param replyTo
+	 *            the reply to destination
+	 */
+	public void setJMSReplyTo(Destination replyTo) {
+		this.replyTo = replyTo;
+	}
+
+	/**
+	 * Gets the destination.
+	 * 
+	 * @return the destination
+	 */
+	public Destination getJMSDestination() {
+		return destination;
+	}
+
+	/**
+	 * Sets the destination.
+	 * 
+	 * @param destination
+	 *            the destination
+	 */
+	public void setJMSDestination(Destination destination) {
+		this.destination = destination;
+	}
+
+	/**
+	 * Gets the features used for encoding this message.
+	 * 
+	 * @return the features
+	 */
+	public int getFeatures() {
+		return features;
+	}
+
+	/**
+	 * Gets the features the sender of this message can decode.
+	 * 
+	 * @return the accepted features, 0 if the sender did not tell them
+	 */
+	public int getAccepts() {
+		return accepts;
+	}
+
+	/**
+	 * Tell the receiver of this message the features this connection can
+	 * decode.
+	 * 
+	 * @param accepts
+	 *            the accepted features
+	 */
+	public void setAccepts(int accepts) {
+		this.accepts = accepts;
+	}
+
+	/**
+	 * Allow or prevent compressing the body of this message when it is sent.
+	 * Messages are compressed according to the threshold of the context by
+	 * default.
+	 * 
+	 * @param compressible
+	 *            false if the receiver can not decode compressed bodies
+	 */
+	public void setCompressible(boolean compressible) {
+		this.compressible = compressible;
+	}
+
+	/**
+	 * Allow or prevent writing strings longer than 64K as LONG_STRING. When
+	 * prevented writing such a string fails as it does with writeUTF.
+	 * 
+	 * @param longStrings
+	 *            false if the receiver can not decode LONG_STRING
+	 */
+	public void setLongStrings(boolean longStrings) {
+		this.longStrings = longStrings;
+	}
+
+	/**
+	 * Checks if there are more values to read.
+	 * 
+	 * @return true, if more values follow
+	 */
+	public boolean hasRemaining() {
+		return !writing && pos < limit;
+	}
+
+	/**
+	 * Gets the context used for encoding and decoding this message.
+	 * 
+	 * @return the message context
+	 */
+	public MessageContext getContext() {
+		return context;
 	}
 
 	/**
@@ -110,13 +711,13 @@ public class JMSLiteMessage extends ActiveMQBytesMessage {
 		case NULL:
 			return null;
 		case INTEGER:
-			return readInt();
+			return readIntValue();
 		case BYTE:
 			return readByte();
 		case LONG:
-			return readLong();
+			return readLongValue();
 		case SHORT:
-			return readShort();
+			return readShortValue();
 		case BOOLEAN:
 			return readBoolean();
 		case DOUBLE:
@@ -125,17 +726,61 @@ public class JMSLiteMessage extends ActiveMQBytesMessage {
 			return readFloat();
 		case STRING:
 			return readUTF();
+		case LONG_STRING:
+			return readLongString();
+		case SYMBOL:
+			return readName();
+		case REFERENCE:
+			return readReference();
+		case ARGS:
+			pos--;
+			return readArguments(readArgumentTypes());
 		case OBJECTHANDLE:
 			ObjectHandle handle = new ObjectHandle();
 			handle.decode(this);
 			return handle;
 		case OBJECT:
 			return decodeObject();
+		case BEAN:
+			return decodeBean();
 		case ARRAY:
 			return decodeArray();
+		case LIST:
+			return decodeList();
+		case SET:
+			return decodeSet();
+		case MAP:
+			return decodeMap();
+		case ENUM:
+			return decodeEnum();
+		case CHAR:
+			return (char) readShort();
+		case BIG_INTEGER:
+			return new BigInteger(readByteArray());
+		case BIG_DECIMAL:
+			int scale = readIntValue();
+			return new BigDecimal(new BigInteger(readByteArray()), scale);
+		case DATE:
+			return new Date(readInstant().getTime());
+		case TIMESTAMP:
+			return readInstant();
+		case UUID_VALUE:
+			return new UUID(readLong(), readLong());
+		case ARRAY_INT:
+		case ARRAY_LONG:
+		case ARRAY_DOUBLE:
+		case ARRAY_FLOAT:
+		case ARRAY_SHORT:
+		case ARRAY_BYTE:
+		case ARRAY_BOOLEAN:
+		case ARRAY_CHAR:
+			return decodePrimitiveArray(type);
 		default:
-			throw new IllegalArgumentException(
-					"Unknown type while reading message: " + type);
+			Codec<?> codec = context.getCodecs().getCodec(type);
+			if (codec == null)
+				throw new IllegalArgumentException(
+						"Unknown type while reading message: " + type);
+			return codec.decode(this);
 		}
 	}
 
@@ -150,102 +795,1397 @@ public class JMSLiteMessage extends ActiveMQBytesMessage {
 	public void write(Object value) throws Exception {
 		if (value == null) {
 			writeByte(NULL);
-		} else if (value instanceof Integer) {
+			return;
+		}
+		CodecRegistry codecs = context.getCodecs();
+		byte tag = codecs.getTag(value.getClass());
+		if ((features & FEATURE_REFERENCES) != 0 && isReferenced(tag)
+				&& writeReference(value))
+			return;
+		switch (tag) {
+		case INTEGER:
 			writeByte(INTEGER);
-			writeInt(((Integer) value).intValue());
-		} else if (value instanceof Byte) {
+			writeIntValue(((Integer) value).intValue());
+			break;
+		case BYTE:
 			writeByte(BYTE);
 			writeByte(((Byte) value).byteValue());
-		} else if (value instanceof Long) {
+			break;
+		case LONG:
 			writeByte(LONG);
-			writeLong(((Long) value).longValue());
-		} else if (value instanceof Short) {
+			writeLongValue(((Long) value).longValue());
+			break;
+		case SHORT:
 			writeByte(SHORT);
-			writeShort(((Short) value).shortValue());
-		} else if (value instanceof Boolean) {
+			writeShortValue(((Short) value).shortValue());
+			break;
+		case BOOLEAN:
 			writeByte(BOOLEAN);
 			writeBoolean(((Boolean) value).booleanValue());
-		} else if (value instanceof Double) {
+			break;
+		case DOUBLE:
 			writeByte(DOUBLE);
 			writeDouble(((Double) value).doubleValue());
-		} else if (value instanceof Float) {
+			break;
+		case FLOAT:
 			writeByte(FLOAT);
 			writeFloat(((Float) value).floatValue());
-		} else if (value instanceof String) {
-			writeByte(STRING);
-			writeUTF((String) value);
-		} else if (value instanceof ObjectHandle) {
-			writeByte(OBJECTHANDLE);
-			((ObjectHandle) value).encode(this);
-		} else if (value instanceof IProxy) {
+			break;
+		case STRING:
+			String string = (String) value;
+			if (longStrings && utfLength(string) > MAX_UTF_LENGTH) {
+				writeLongString(string);
+			} else {
+				writeByte(STRING);
+				writeUTF(string);
+			}
+			break;
+		case OBJECTHANDLE:
 			writeByte(OBJECTHANDLE);
-			(((IProxy) value).getHandle()).encode(this);
-		} else if (value.getClass().isArray()) {
+			if (value instanceof IProxy)
+				((IProxy) value).getHandle().encode(this);
+			else
+				((ObjectHandle) value).encode(this);
+			break;
+		case ARRAY_INT:
+		case ARRAY_LONG:
+		case ARRAY_DOUBLE:
+		case ARRAY_FLOAT:
+		case ARRAY_SHORT:
+		case ARRAY_BYTE:
+		case ARRAY_BOOLEAN:
+		case ARRAY_CHAR:
+			encodePrimitiveArray(tag, value);
+			break;
+		case ARRAY:
 			writeByte(ARRAY);
 			Object[] a = (Object[]) value;
-			writeInt(a.length);
+			writeLength(a.length);
 			for (Object object : a) {
 				write(object);
 			}
-		} else {
-			encodeObject(value);
+			break;
+		case LIST:
+		case SET:
+			Collection<?> c = (Collection<?>) value;
+			writeByte(tag);
+			writeLength(c.size());
+			for (Object object : c) {
+				write(object);
+			}
+			break;
+		case MAP:
+			Map<?, ?> m = (Map<?, ?>) value;
+			writeByte(MAP);
+			writeLength(m.size());
+			for (Map.Entry<?, ?> entry : m.entrySet()) {
+				write(entry.getKey());
+				write(entry.getValue());
+			}
+			break;
+		case ENUM:
+			writeByte(ENUM);
+			Enum<?> e = (Enum<?>) value;
+			writeName(e.getDeclaringClass().getName());
+			writeLength(e.ordinal());
+			break;
+		case CHAR:
+			writeByte(CHAR);
+			writeShort((short) ((Character) value).charValue());
+			break;
+		case BIG_INTEGER:
+			writeByte(BIG_INTEGER);
+			writeByteArray(((BigInteger) value).toByteArray());
+			break;
+		case BIG_DECIMAL:
+			BigDecimal decimal = (BigDecimal) value;
+			writeByte(BIG_DECIMAL);
+			writeIntValue(decimal.scale());
+			writeByteArray(decimal.unscaledValue().toByteArray());
+			break;
+		case DATE:
+		case TIMESTAMP:
+			writeByte(tag);
+			writeInstant((Date) value);
+			break;
+		case UUID_VALUE:
+			UUID uuid = (UUID) value;
+			writeByte(UUID_VALUE);
+			writeLong(uuid.getMostSignificantBits());
+			writeLong(uuid.getLeastSignificantBits());
+			break;
+		case OBJECT:
+			if ((features & FEATURE_SCHEMA) != 0)
+				encodeBean(value);
+			else
+				encodeObject(value);
+			break;
+		default:
+			writeByte(tag);
+			codecs.getCodec(tag).encode(this, value);
 		}
 	}
 
 	/**
-	 * Decode array.
+	 * Gets the tag used for writing instances of a class that does not have a
+	 * registered codec.
 	 * 
-	 * @return the object
-	 * @throws JMSException
-	 *             the jMS exception
-	 * @throws Exception
-	 *             the exception
+	 * @param klass
+	 *            the class
+	 * @return the tag
 	 */
-	private Object decodeArray() throws JMSException, Exception {
-		int len = readInt();
-		Object[] a = new Object[len];
-		for (int i = 0; i < len; i++)
-			a[i] = read();
-		return a;
+	static byte getBuiltinTag(Class<?> klass) {
+		if (klass == Integer.class)
+			return INTEGER;
+		if (klass == Byte.class)
+			return BYTE;
+		if (klass == Long.class)
+			return LONG;
+		if (klass == Short.class)
+			return SHORT;
+		if (klass == Boolean.class)
+			return BOOLEAN;
+		if (klass == Double.class)
+			return DOUBLE;
+		if (klass == Float.class)
+			return FLOAT;
+		if (klass == String.class)
+			return STRING;
+		if (klass == Character.class)
+			return CHAR;
+		if (klass.isEnum()
+				|| klass.getSuperclass() != null
+				&& klass.getSuperclass().isEnum())
+			return ENUM;
+		if (klass == BigInteger.class)
+			return BIG_INTEGER;
+		if (klass == BigDecimal.class)
+			return BIG_DECIMAL;
+		if (klass == Date.class)
+			return DATE;
+		if (klass == Timestamp.class)
+			return TIMESTAMP;
+		if (klass == UUID.class)
+			return UUID_VALUE;
+		if (ObjectHandle.class.isAssignableFrom(klass)
+				|| IProxy.class.isAssignableFrom(klass))
+			return OBJECTHANDLE;
+		if (klass.isArray()) {
+			Class<?> type = klass.getComponentType();
+			if (!type.isPrimitive())
+				return ARRAY;
+			if (type == Integer.TYPE)
+				return ARRAY_INT;
+			if (type == Long.TYPE)
+				return ARRAY_LONG;
+			if (type == Double.TYPE)
+				return ARRAY_DOUBLE;
+			if (type == Float.TYPE)
+				return ARRAY_FLOAT;
+			if (type == Short.TYPE)
+				return ARRAY_SHORT;
+			if (type == Byte.TYPE)
+				return ARRAY_BYTE;
+			if (type == Boolean.TYPE)
+				return ARRAY_BOOLEAN;
+			return ARRAY_CHAR;
+		}
+		if (Set.class.isAssignableFrom(klass))
+			return SET;
+		if (Collection.class.isAssignableFrom(klass))
+			return LIST;
+		if (Map.class.isAssignableFrom(klass))
+			return MAP;
+		return OBJECT;
 	}
 
 	/**
-	 * Decode object.
+	 * Write a string that may not fit into writeUTF. Strings with only
+	 * ISO-8859-1 characters are written with one byte per character, all
+	 * others in UTF-8.
 	 * 
-	 * @return the object
+	 * @param value
+	 *            the value
 	 * @throws Exception
 	 *             the exception
 	 */
-	private Object decodeObject() throws Exception {
-		String className = readUTF();
-		Class<?> klass = Class.forName(className);
-		Object instance = klass.newInstance();
-		int nGetters = readInt();
-		for (int i = 0; i < nGetters; i++) {
-			String methodName = readUTF();
-			Object value = read();
-			Method method = findSetter(klass, methodName);
-			if (method == null)
-				continue;
-			method.invoke(instance, value);
+	@SuppressWarnings("deprecation")
+	private void writeLongString(String value) throws Exception {
+		int len = value.length();
+		boolean latin1 = true;
+		for (int i = 0; i < len && latin1; i++)
+			latin1 = value.charAt(i) <= 0xff;
+		byte[] b;
+		if (latin1) {
+			b = new byte[len];
+			value.getBytes(0, len, b, 0);
+		} else
+			b = value.getBytes("UTF-8");
+		writeByte(LONG_STRING);
+		writeByte(latin1 ? LATIN_1 : UTF_8);
+		writeInt(b.length);
+		writeBytes(b);
+	}
+
+	/**
+	 * Read a string written by {@link #writeLongString(String)}. The string
+	 * is created directly from the body.
+	 * 
+	 * @return the string
+	 * @throws Exception
+	 *             the exception
+	 */
+	private String readLongString() throws Exception {
+		boolean latin1 = readByte() == LATIN_1;
+		int len = readInt();
+		require(len);
+		String s = toString(buf, pos, len, latin1);
+		pos += len;
+		return s;
+	}
+
+	@SuppressWarnings("deprecation")
+	private static String toString(byte[] b, int offset, int len,
+			boolean latin1) throws Exception {
+		if (latin1)
+			return new String(b, 0, offset, len);
+		return new String(b, offset, len, "UTF-8");
+	}
+
+	/**
+	 * Write a string value that is likely to be repeated in the message.
+	 * 
+	 * When the dictionary feature is enabled, the string is written as a
+	 * dictionary entry. Otherwise this is same as {@link #write(Object)}.
+	 * 
+	 * @param value
+	 *            the value
+	 * @throws Exception
+	 *             the exception
+	 */
+	public void writeSymbol(String value) throws Exception {
+		if (value == null || (features & FEATURE_DICTIONARY) == 0) {
+			write(value);
+		} else {
+			writeByte(SYMBOL);
+			writeName(value);
 		}
-		return instance;
 	}
 
 	/**
-	 * Encode getter value.
+	 * Write a name. With the dictionary feature the first occurrence of a name
+	 * is written as 0 followed by the name, later occurrences as the index of
+	 * the name plus one.
 	 * 
-	 * @param getValue
-	 *            the get value
 	 * @param name
 	 *            the name
+	 */
+	private void writeName(String name) {
+		if ((features & FEATURE_DICTIONARY) == 0) {
+			writeUTF(name);
+			return;
+		}
+		if (writeDictionary == null)
+			writeDictionary = new HashMap<String, Integer>();
+		Integer id = writeDictionary.get(name);
+		if (id != null) {
+			writeVarInt(id + 1);
+		} else {
+			writeVarInt(0);
+			writeUTF(name);
+			writeDictionary.put(name, writeDictionary.size());
+		}
+	}
+
+	/**
+	 * Read a name written by {@link #writeName(String)}.
+	 * 
+	 * @return the name
+	 * @throws IOException
+	 *             if the name refers to a name that was not read before
+	 */
+	private String readName() throws IOException {
+		if ((features & FEATURE_DICTIONARY) == 0)
+			return readUTF();
+		if (readDictionary == null)
+			readDictionary = new ArrayList<String>();
+		int ref = readVarInt();
+		if (ref < 0 || ref > readDictionary.size())
+			throw new IOException("Invalid name reference " + ref);
+		if (ref > 0)
+			return readDictionary.get(ref - 1);
+		String name = readUTF();
+		readDictionary.add(name);
+		return name;
+	}
+
+	/**
+	 * Write an unsigned LEB128 variable length int.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	private void writeVarInt(int value) {
+		while ((value & ~0x7f) != 0) {
+			writeByte((byte) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		writeByte((byte) value);
+	}
+
+	/**
+	 * Write an unsigned LEB128 variable length long.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	private void writeVarLong(long value) {
+		while ((value & ~0x7fL) != 0) {
+			writeByte((byte) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		writeByte((byte) value);
+	}
+
+	/**
+	 * Read an unsigned LEB128 variable length long.
+	 * 
+	 * @return the value
+	 */
+	private long readVarLong() {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed varint in message");
+	}
+
+	private static int encodeZigZag(int value) {
+		return value << 1 ^ value >> 31;
+	}
+
+	private static int decodeZigZag(int value) {
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	private static long encodeZigZag(long value) {
+		return value << 1 ^ value >> 63;
+	}
+
+	private static long decodeZigZag(long value) {
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	private boolean isCompact() {
+		return (features & FEATURE_COMPACT) != 0;
+	}
+
+	private void writeIntValue(int value) {
+		if (isCompact())
+			writeVarInt(encodeZigZag(value));
+		else
+			writeInt(value);
+	}
+
+	private int readIntValue() {
+		return isCompact() ? decodeZigZag(readVarInt()) : readInt();
+	}
+
+	private void writeLongValue(long value) {
+		if (isCompact())
+			writeVarLong(encodeZigZag(value));
+		else
+			writeLong(value);
+	}
+
+	private long readLongValue() {
+		return isCompact() ? decodeZigZag(readVarLong()) : readLong();
+	}
+
+	private void writeShortValue(short value) {
+		if (isCompact())
+			writeVarInt(encodeZigZag(value));
+		else
+			writeShort(value);
+	}
+
+	private short readShortValue() {
+		return isCompact() ? (short) decodeZigZag(readVarInt()) : readShort();
+	}
+
+	/**
+	 * Write the length of an array or the number of properties.
+	 * 
+	 * @param len
+	 *            the length
+	 */
+	private void writeLength(int len) {
+		if (isCompact())
+			writeVarInt(len);
+		else
+			writeInt(len);
+	}
+
+	/**
+	 * Read a length written by {@link #writeLength(int)}.
+	 * 
+	 * @return the length
+	 */
+	private int readLength() {
+		return isCompact() ? readVarInt() : readInt();
+	}
+
+	/**
+	 * Read a length written by {@link #writeLength(int)} that counts elements
+	 * taking at least elementSize bytes each. The elements must fit into the
+	 * rest of the message, so that a corrupt length does not allocate a large
+	 * array.
+	 * 
+	 * @param elementSize
+	 *            the minimum number of bytes of an element
+	 * @return the length
+	 */
+	private int readLength(int elementSize) {
+		int len = readLength();
+		if (len < 0 || (long) len * elementSize > limit - pos)
+			throw new IllegalArgumentException("Unexpected end of message");
+		return len;
+	}
+
+	/**
+	 * Read an unsigned LEB128 variable length int.
+	 * 
+	 * @return the value
+	 */
+	private int readVarInt() {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = readByte();
+			value |= (b & 0x7f) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed varint in message");
+	}
+
+	/**
+	 * Write the arguments of a method call. With the lazy arguments feature
+	 * the arguments are preceded by their tags, see
+	 * {@link #readArgumentTypes()}. Otherwise this is same as
+	 * {@link #write(Object)}.
+	 * 
+	 * @param args
+	 *            the arguments
+	 * @throws Exception
+	 *             the exception
+	 */
+	public void writeArguments(Object[] args) throws Exception {
+		if ((features & FEATURE_LAZY_ARGS) == 0) {
+			write(args);
+			return;
+		}
+		int n = args == null ? 0 : args.length;
+		writeByte(ARGS);
+		writeLength(n);
+		int types = pos;
+		ensureCapacity(n);
+		pos += n;
+		for (int i = 0; i < n; i++) {
+			int tag = pos;
+			write(args[i]);
+			buf[types + i] = buf[tag];
+		}
+	}
+
+	/**
+	 * Write the method of a call as METHOD_ID.
+	 * 
+	 * @param index
+	 *            the index of the method in the method table
+	 * @param signature
+	 *            the signature hash of the method
+	 * @see MethodTable
+	 */
+	public void writeMethodId(int index, int signature) {
+		writeByte(METHOD_ID);
+		writeLength(index);
+		writeInt(signature);
+	}
+
+	/**
+	 * Read the method of a call written by {@link #writeMethodId(int, int)}.
+	 * 
+	 * @return the index and the signature hash of the method or null if the
+	 *         next value is not written as METHOD_ID
+	 */
+	public int[] readMethodId() {
+		require(1);
+		if (buf[pos] != METHOD_ID)
+			return null;
+		pos++;
+		int index = readLength();
+		return new int[] { index, readInt() };
+	}
+
+	/**
+	 * Read the tags of the arguments written by
+	 * {@link #writeArguments(Object[])}. The arguments themselves are read by
+	 * {@link #readArguments(byte[])}.
+	 * 
+	 * @return the tags or null if the next value is not written as ARGS
+	 */
+	public byte[] readArgumentTypes() {
+		require(1);
+		if (buf[pos] != ARGS)
+			return null;
+		pos++;
+		int n = readLength();
+		require(n);
+		byte[] types = new byte[n];
+		readFully(types);
+		return types;
+	}
+
+	/**
+	 * Read the arguments following {@link #readArgumentTypes()}.
+	 * 
+	 * @param types
+	 *            the tags of the arguments
+	 * @return the arguments
+	 * @throws Exception
+	 *             the exception
+	 */
+	public Object[] readArguments(byte[] types) throws Exception {
+		int n = types.length;
+		Object[] args = new Object[n];
+		for (int i = 0; i < n; i++) {
+			require(1);
+			if (buf[pos] != types[i])
+				throw new IllegalArgumentException(
+						"Argument does not match its tag: " + i);
+			args[i] = read();
+		}
+		return args;
+	}
+
+	/**
+	 * Checks whether an argument written with a tag can be passed to a
+	 * parameter of the given type. Values whose class is not known from the
+	 * tag, such as beans and object handles, match any reference type.
+	 * 
+	 * @param type
+	 *            the parameter type
+	 * @param tag
+	 *            the tag of the argument
+	 * @return true, if the argument may match
+	 */
+	static boolean isAssignable(Class<?> type, byte tag) {
+		if (tag == NULL)
+			return !type.isPrimitive();
+		Class<?> klass = getTagClass(tag);
+		if (klass == null)
+			return !type.isPrimitive();
+		if (type.isPrimitive())
+			return klass == getWrapper(type);
+		if (type.isAssignableFrom(klass))
+			return true;
+		if (tag == ARRAY)
+			return type.isArray() && !type.getComponentType().isPrimitive();
+		if (tag == LIST || tag == SET)
+			return Collection.class.isAssignableFrom(type);
+		if (tag == MAP)
+			return Map.class.isAssignableFrom(type);
+		return false;
+	}
+
+	private static Class<?> getTagClass(byte tag) {
+		switch (tag) {
+		case INTEGER:
+			return Integer.class;
+		case BYTE:
+			return Byte.class;
+		case LONG:
+			return Long.class;
+		case SHORT:
+			return Short.class;
+		case BOOLEAN:
+			return Boolean.class;
+		case DOUBLE:
+			return Double.class;
+		case FLOAT:
+			return Float.class;
+		case CHAR:
+			return Character.class;
+		case STRING:
+		case LONG_STRING:
+		case SYMBOL:
+			return String.class;
+		case ARRAY:
+			return Object[].class;
+		case ARRAY_INT:
+			return int[].class;
+		case ARRAY_LONG:
+			return long[].class;
+		case ARRAY_DOUBLE:
+			return double[].class;
+		case ARRAY_FLOAT:
+			return float[].class;
+		case ARRAY_SHORT:
+			return short[].class;
+		case ARRAY_BYTE:
+			return byte[].class;
+		case ARRAY_BOOLEAN:
+			return boolean[].class;
+		case ARRAY_CHAR:
+			return char[].class;
+		case LIST:
+			return ArrayList.class;
+		case SET:
+			return LinkedHashSet.class;
+		case MAP:
+			return LinkedHashMap.class;
+		case BIG_INTEGER:
+			return BigInteger.class;
+		case BIG_DECIMAL:
+			return BigDecimal.class;
+		case DATE:
+			return Date.class;
+		case TIMESTAMP:
+			return Timestamp.class;
+		case UUID_VALUE:
+			return UUID.class;
+		default:
+			return null;
+		}
+	}
+
+	private static Class<?> getWrapper(Class<?> type) {
+		if (type == Integer.TYPE)
+			return Integer.class;
+		if (type == Long.TYPE)
+			return Long.class;
+		if (type == Short.TYPE)
+			return Short.class;
+		if (type == Byte.TYPE)
+			return Byte.class;
+		if (type == Boolean.TYPE)
+			return Boolean.class;
+		if (type == Double.TYPE)
+			return Double.class;
+		if (type == Float.TYPE)
+			return Float.class;
+		if (type == Character.TYPE)
+			return Character.class;
+		return null;
+	}
+
+	/**
+	 * Checks if values written with a tag are tracked by the references
+	 * feature.
+	 * 
+	 * @param tag
+	 *            the tag
+	 * @return true, if the values are tracked
+	 */
+	private static boolean isReferenced(byte tag) {
+		return tag == OBJECT || tag == ARRAY || tag == LIST || tag == SET
+				|| tag == MAP;
+	}
+
+	/**
+	 * Write a reference to a value written earlier. A value seen for the first
+	 * time is remembered and nothing is written.
+	 * 
+	 * @param value
+	 *            the value
+	 * @return true, if a reference was written
+	 */
+	private boolean writeReference(Object value) {
+		if (writeReferences == null)
+			writeReferences = new IdentityHashMap<Object, Integer>();
+		Integer id = writeReferences.get(value);
+		if (id == null) {
+			writeReferences.put(value, writeReferences.size());
+			return false;
+		}
+		writeByte(REFERENCE);
+		writeVarInt(id);
+		return true;
+	}
+
+	/**
+	 * Remember a decoded value that may be referred later. Values are added
+	 * when they are created, before their contents are read, so that the
+	 * order matches {@link #writeReference(Object)}.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	private void addReference(Object value) {
+		if ((features & FEATURE_REFERENCES) == 0)
+			return;
+		if (readReferences == null)
+			readReferences = new ArrayList<Object>();
+		readReferences.add(value);
+	}
+
+	/**
+	 * Read a value written by {@link #writeReference(Object)}.
+	 * 
+	 * @return the value
+	 */
+	private Object readReference() {
+		int id = readVarInt();
+		if (readReferences == null || id < 0 || id >= readReferences.size())
+			throw new IllegalArgumentException(
+					"Unknown reference while reading message: " + id);
+		return readReferences.get(id);
+	}
+
+	/**
+	 * Decode an enum constant.
+	 * 
+	 * @return the enum constant
+	 * @throws Exception
+	 *             the exception
+	 */
+	private Object decodeEnum() throws Exception {
+		Class<?> klass = context.getClassResolver().resolve(readName());
+		int ordinal = readLength();
+		Object[] constants = klass.getEnumConstants();
+		if (constants == null || ordinal < 0 || ordinal >= constants.length)
+			throw new IOException("Unknown enum constant " + klass.getName()
+					+ "#" + ordinal);
+		return constants[ordinal];
+	}
+
+	/**
+	 * Write the bytes of a number preceded by their count.
+	 * 
+	 * @param b
+	 *            the bytes
+	 */
+	private void writeByteArray(byte[] b) {
+		writeLength(b.length);
+		writeBytes(b);
+	}
+
+	/**
+	 * Read bytes written by {@link #writeByteArray(byte[])}.
+	 * 
+	 * @return the bytes
+	 */
+	private byte[] readByteArray() {
+		int len = readLength();
+		require(len);
+		byte[] b = new byte[len];
+		readFully(b);
+		return b;
+	}
+
+	/**
+	 * Write a point in time as the zigzag coded seconds since the epoch and
+	 * the nanoseconds within the second, both as varints. The nanoseconds of
+	 * a Timestamp are kept.
+	 * 
+	 * @param date
+	 *            the date
+	 */
+	private void writeInstant(Date date) {
+		long millis = date.getTime();
+		long seconds = millis / 1000;
+		int nanos = (int) (millis % 1000) * 1000000;
+		if (nanos < 0) {
+			seconds--;
+			nanos += 1000000000;
+		}
+		if (date instanceof Timestamp)
+			nanos = ((Timestamp) date).getNanos();
+		writeVarLong(encodeZigZag(seconds));
+		writeVarInt(nanos);
+	}
+
+	/**
+	 * Read a point in time written by {@link #writeInstant(Date)}.
+	 * 
+	 * @return the timestamp
+	 */
+	private Timestamp readInstant() {
+		long seconds = decodeZigZag(readVarLong());
+		int nanos = readVarInt();
+		if (nanos < 0 || nanos > 999999999)
+			throw new IllegalArgumentException("Malformed date in message");
+		Timestamp timestamp = new Timestamp(seconds * 1000);
+		timestamp.setNanos(nanos);
+		return timestamp;
+	}
+
+	/**
+	 * Decode array.
+	 * 
+	 * @return the object
+	 * @throws Exception
+	 *             the exception
+	 */
+	private Object decodeArray() throws Exception {
+		int len = readLength(1);
+		Object[] a = new Object[len];
+		addReference(a);
+		for (int i = 0; i < len; i++)
+			a[i] = read();
+		return a;
+	}
+
+	/**
+	 * Decode a list.
+	 * 
+	 * @return the list
 	 * @throws Exception
 	 *             the exception
 	 */
-	private void encodeGetterValue(Object getValue, String name)
+	private Object decodeList() throws Exception {
+		int len = readLength(1);
+		List<Object> list = new ArrayList<Object>(len);
+		addReference(list);
+		for (int i = 0; i < len; i++)
+			list.add(read());
+		return list;
+	}
+
+	/**
+	 * Decode a set. The iteration order of the sender is retained.
+	 * 
+	 * @return the set
+	 * @throws Exception
+	 *             the exception
+	 */
+	private Object decodeSet() throws Exception {
+		int len = readLength(1);
+		Set<Object> set = new LinkedHashSet<Object>(capacity(len));
+		addReference(set);
+		for (int i = 0; i < len; i++)
+			set.add(read());
+		return set;
+	}
+
+	/**
+	 * Decode a map. The iteration order of the sender is retained.
+	 * 
+	 * @return the map
+	 * @throws Exception
+	 *             the exception
+	 */
+	private Object decodeMap() throws Exception {
+		int len = readLength(2);
+		Map<Object, Object> map = new LinkedHashMap<Object, Object>(
+				capacity(len));
+		addReference(map);
+		for (int i = 0; i < len; i++) {
+			Object key = read();
+			map.put(key, read());
+		}
+		return map;
+	}
+
+	/**
+	 * The capacity of a hashed collection that holds n elements without
+	 * rehashing.
+	 */
+	private static int capacity(int n) {
+		return n < 3 ? n + 1 : (int) (n / 0.75f) + 1;
+	}
+
+	/**
+	 * Decode an array of primitives.
+	 * 
+	 * @param type
+	 *            the type of the array
+	 * @return the array
+	 * @throws Exception
+	 *             the exception
+	 */
+	private Object decodePrimitiveArray(byte type) throws Exception {
+		int len = readLength(elementSize(type));
+		switch (type) {
+		case ARRAY_BYTE: {
+			byte[] a = new byte[len];
+			readFully(a);
+			return a;
+		}
+		case ARRAY_BOOLEAN: {
+			byte[] b = new byte[len];
+			readFully(b);
+			boolean[] a = new boolean[len];
+			for (int i = 0; i < len; i++)
+				a[i] = b[i] != 0;
+			return a;
+		}
+		case ARRAY_INT: {
+			int[] a = new int[len];
+			readBuffer(len * 4).asIntBuffer().get(a);
+			return a;
+		}
+		case ARRAY_LONG: {
+			long[] a = new long[len];
+			readBuffer(len * 8).asLongBuffer().get(a);
+			return a;
+		}
+		case ARRAY_DOUBLE: {
+			double[] a = new double[len];
+			readBuffer(len * 8).asDoubleBuffer().get(a);
+			return a;
+		}
+		case ARRAY_FLOAT: {
+			float[] a = new float[len];
+			readBuffer(len * 4).asFloatBuffer().get(a);
+			return a;
+		}
+		case ARRAY_SHORT: {
+			short[] a = new short[len];
+			readBuffer(len * 2).asShortBuffer().get(a);
+			return a;
+		}
+		default: {
+			char[] a = new char[len];
+			readBuffer(len * 2).asCharBuffer().get(a);
+			return a;
+		}
+		}
+	}
+
+	/**
+	 * The number of bytes written for an element of an array of primitives.
+	 */
+	private static int elementSize(byte type) {
+		switch (type) {
+		case ARRAY_INT:
+		case ARRAY_FLOAT:
+			return 4;
+		case ARRAY_LONG:
+		case ARRAY_DOUBLE:
+			return 8;
+		case ARRAY_SHORT:
+		case ARRAY_CHAR:
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * Encode an array of primitives. The array is written with a single length
+	 * followed by the contents in big endian order.
+	 * 
+	 * @param type
+	 *            the array tag
+	 * @param value
+	 *            the array
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void encodePrimitiveArray(byte type, Object value)
 			throws Exception {
-		writeUTF(name.startsWith("get") ? name.substring(3) : name.substring(2));
-		write(getValue);
+		if (type == ARRAY_BYTE) {
+			byte[] bytes = (byte[]) value;
+			writeByte(ARRAY_BYTE);
+			writeLength(bytes.length);
+			writeBytes(bytes);
+			return;
+		}
+		if (type == ARRAY_BOOLEAN) {
+			boolean[] booleans = (boolean[]) value;
+			writeByte(ARRAY_BOOLEAN);
+			writeLength(booleans.length);
+			ensureCapacity(booleans.length);
+			for (boolean b : booleans)
+				buf[pos++] = (byte) (b ? 1 : 0);
+			return;
+		}
+		int length = Array.getLength(value);
+		int size = type == ARRAY_LONG || type == ARRAY_DOUBLE ? 8
+				: type == ARRAY_INT || type == ARRAY_FLOAT ? 4 : 2;
+		writeByte(type);
+		writeLength(length);
+		ensureCapacity(length * size);
+		ByteBuffer buffer = ByteBuffer.wrap(buf, pos, length * size);
+		switch (type) {
+		case ARRAY_INT:
+			buffer.asIntBuffer().put((int[]) value);
+			break;
+		case ARRAY_LONG:
+			buffer.asLongBuffer().put((long[]) value);
+			break;
+		case ARRAY_DOUBLE:
+			buffer.asDoubleBuffer().put((double[]) value);
+			break;
+		case ARRAY_FLOAT:
+			buffer.asFloatBuffer().put((float[]) value);
+			break;
+		case ARRAY_SHORT:
+			buffer.asShortBuffer().put((short[]) value);
+			break;
+		default:
+			buffer.asCharBuffer().put((char[]) value);
+		}
+		pos += length * size;
+	}
+
+	/**
+	 * Read len bytes from the message as a buffer. The buffer is a view of the
+	 * body.
+	 * 
+	 * @param len
+	 *            the number of bytes
+	 * @return the buffer
+	 */
+	private ByteBuffer readBuffer(int len) {
+		require(len);
+		ByteBuffer buffer = ByteBuffer.wrap(buf, pos, len);
+		pos += len;
+		return buffer;
+	}
+
+	/**
+	 * Fill the array from the message.
+	 * 
+	 * @param b
+	 *            the array
+	 */
+	private void readFully(byte[] b) {
+		require(b.length);
+		System.arraycopy(buf, pos, b, 0, b.length);
+		pos += b.length;
+	}
+
+	/**
+	 * Make room for writing n bytes.
+	 * 
+	 * @param n
+	 *            the number of bytes
+	 */
+	private void ensureCapacity(int n) {
+		if (!writing)
+			throw new IllegalStateException("Message is not writeable");
+		if (n <= buf.length - pos)
+			return;
+		byte[] b = new byte[Math.max(buf.length << 1, pos + n)];
+		System.arraycopy(buf, 0, b, 0, pos);
+		buf = b;
+	}
+
+	/**
+	 * Check that n more bytes can be read.
+	 * 
+	 * @param n
+	 *            the number of bytes
+	 */
+	private void require(int n) {
+		if (n < 0 || n > limit - pos)
+			throw new IllegalArgumentException("Unexpected end of message");
+	}
+
+	/**
+	 * Write a byte.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	public void writeByte(byte value) {
+		ensureCapacity(1);
+		buf[pos++] = value;
+	}
+
+	/**
+	 * Write a boolean as a byte.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	public void writeBoolean(boolean value) {
+		writeByte((byte) (value ? 1 : 0));
+	}
+
+	/**
+	 * Write a short.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	public void writeShort(short value) {
+		ensureCapacity(2);
+		buf[pos++] = (byte) (value >>> 8);
+		buf[pos++] = (byte) value;
+	}
+
+	/**
+	 * Write an int.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	public void writeInt(int value) {
+		ensureCapacity(4);
+		buf[pos++] = (byte) (value >>> 24);
+		buf[pos++] = (byte) (value >>> 16);
+		buf[pos++] = (byte) (value >>> 8);
+		buf[pos++] = (byte) value;
+	}
+
+	/**
+	 * Write a long.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	public void writeLong(long value) {
+		writeInt((int) (value >>> 32));
+		writeInt((int) value);
+	}
+
+	/**
+	 * Write a float.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	public void writeFloat(float value) {
+		writeInt(Float.floatToIntBits(value));
+	}
+
+	/**
+	 * Write a double.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	public void writeDouble(double value) {
+		writeLong(Double.doubleToLongBits(value));
+	}
+
+	/**
+	 * Write bytes.
+	 * 
+	 * @param value
+	 *            the bytes
+	 */
+	public void writeBytes(byte[] value) {
+		writeBytes(value, 0, value.length);
+	}
+
+	/**
+	 * Write a part of an array of bytes.
+	 * 
+	 * @param value
+	 *            the bytes
+	 * @param offset
+	 *            the offset
+	 * @param length
+	 *            the number of bytes
+	 */
+	public void writeBytes(byte[] value, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(value, offset, buf, pos, length);
+		pos += length;
+	}
+
+	/**
+	 * Write a string in modified UTF-8 preceded by its length as an unsigned
+	 * short, the format of DataOutput.writeUTF.
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	public void writeUTF(String value) {
+		int len = value.length();
+		int utflen = utfLength(value);
+		if (utflen > MAX_UTF_LENGTH)
+			throw new IllegalArgumentException(
+					"String is too long to write: more than " + MAX_UTF_LENGTH
+							+ " bytes");
+		ensureCapacity(utflen + 2);
+		buf[pos++] = (byte) (utflen >>> 8);
+		buf[pos++] = (byte) utflen;
+		for (int i = 0; i < len; i++) {
+			char c = value.charAt(i);
+			if (c != 0 && c <= 0x7f) {
+				buf[pos++] = (byte) c;
+			} else if (c > 0x7ff) {
+				buf[pos++] = (byte) (0xe0 | c >> 12 & 0x0f);
+				buf[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+				buf[pos++] = (byte) (0x80 | c & 0x3f);
+			} else {
+				buf[pos++] = (byte) (0xc0 | c >> 6 & 0x1f);
+				buf[pos++] = (byte) (0x80 | c & 0x3f);
+			}
+		}
+	}
+
+	/**
+	 * Gets the length of the modified UTF-8 encoding of a string. Counting
+	 * stops once the length exceeds the limit of writeUTF.
+	 * 
+	 * @param value
+	 *            the value
+	 * @return the length in bytes
+	 */
+	private static int utfLength(String value) {
+		int len = value.length();
+		if (len > MAX_UTF_LENGTH)
+			return len;
+		int utflen = len;
+		for (int i = 0; i < len && utflen <= MAX_UTF_LENGTH; i++) {
+			char c = value.charAt(i);
+			if (c == 0 || c > 0x7f)
+				utflen += c > 0x7ff ? 2 : 1;
+		}
+		return utflen;
+	}
+
+	/**
+	 * Read a byte.
+	 * 
+	 * @return the value
+	 */
+	public byte readByte() {
+		require(1);
+		return buf[pos++];
+	}
+
+	/**
+	 * Read a boolean.
+	 * 
+	 * @return the value
+	 */
+	public boolean readBoolean() {
+		return readByte() != 0;
+	}
+
+	/**
+	 * Read a short.
+	 * 
+	 * @return the value
+	 */
+	public short readShort() {
+		require(2);
+		return (short) (buf[pos++] << 8 | buf[pos++] & 0xff);
+	}
+
+	/**
+	 * Read an int.
+	 * 
+	 * @return the value
+	 */
+	public int readInt() {
+		require(4);
+		return buf[pos++] << 24 | (buf[pos++] & 0xff) << 16
+				| (buf[pos++] & 0xff) << 8 | buf[pos++] & 0xff;
+	}
+
+	/**
+	 * Read a long.
+	 * 
+	 * @return the value
+	 */
+	public long readLong() {
+		long high = readInt();
+		return high << 32 | readInt() & 0xffffffffL;
+	}
+
+	/**
+	 * Read a float.
+	 * 
+	 * @return the value
+	 */
+	public float readFloat() {
+		return Float.intBitsToFloat(readInt());
+	}
+
+	/**
+	 * Read a double.
+	 * 
+	 * @return the value
+	 */
+	public double readDouble() {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	/**
+	 * Read bytes into an array.
+	 * 
+	 * @param value
+	 *            the array
+	 * @return the number of bytes read, -1 at the end of the message
+	 */
+	public int readBytes(byte[] value) {
+		int n = Math.min(value.length, limit - pos);
+		if (n == 0 && value.length > 0)
+			return -1;
+		System.arraycopy(buf, pos, value, 0, n);
+		pos += n;
+		return n;
+	}
+
+	/**
+	 * Read a string written by {@link #writeUTF(String)}.
+	 * 
+	 * @return the value
+	 */
+	public String readUTF() {
+		require(2);
+		int utflen = (buf[pos++] & 0xff) << 8 | buf[pos++] & 0xff;
+		require(utflen);
+		int end = pos + utflen;
+		char[] chars = new char[utflen];
+		int n = 0;
+		while (pos < end) {
+			int c = buf[pos] & 0xff;
+			if (c < 0x80) {
+				chars[n++] = (char) c;
+				pos++;
+			} else if (c >> 5 == 6 && pos + 1 < end
+					&& (buf[pos + 1] & 0xc0) == 0x80) {
+				chars[n++] = (char) ((c & 0x1f) << 6 | buf[pos + 1] & 0x3f);
+				pos += 2;
+			} else if (c >> 4 == 14 && pos + 2 < end
+					&& (buf[pos + 1] & 0xc0) == 0x80
+					&& (buf[pos + 2] & 0xc0) == 0x80) {
+				chars[n++] = (char) ((c & 0x0f) << 12
+						| (buf[pos + 1] & 0x3f) << 6 | buf[pos + 2] & 0x3f);
+				pos += 3;
+			} else
+				throw new IllegalArgumentException(
+						"Malformed string in message");
+		}
+		return new String(chars, 0, n);
+	}
+
+	/**
+	 * Decode object.
+	 * 
+	 * @return the object
+	 * @throws Exception
+	 *             the exception
+	 */
+	private Object decodeObject() throws Exception {
+		String className = readName();
+		Class<?> klass = context.getClassResolver().resolve(className);
+		BeanDescriptor descriptor = BeanDescriptor.forClass(klass);
+		BeanAccessor accessor = context.getAccessor(descriptor);
+		Object instance = descriptor.newInstance();
+		addReference(instance);
+		int nGetters = readLength();
+		for (int i = 0; i < nGetters; i++) {
+			String propertyName = readName();
+			Object value = read();
+			int index = descriptor.indexOf(propertyName);
+			if (index == -1 || descriptor.getSetter(index) == null)
+				continue;
+			accessor.set(instance, index, value);
+		}
+		return instance;
 	}
 
 	/**
@@ -258,43 +2198,174 @@ public class JMSLiteMessage extends ActiveMQBytesMessage {
 	 */
 	private void encodeObject(Object value) throws Exception {
 		writeByte(OBJECT);
-		writeUTF(value.getClass().getName());
-		Method[] methods = value.getClass().getDeclaredMethods();
-		int nGetters = 0;
-		for (Method method : methods) {
-			if (!method.getName().startsWith("get")
-					&& !method.getName().startsWith("is")
-					|| method.getParameterTypes().length != 0)
-				continue;
-			nGetters++;
+		writeName(value.getClass().getName());
+		BeanDescriptor descriptor = BeanDescriptor.forClass(value.getClass());
+		BeanAccessor accessor = context.getAccessor(descriptor);
+		int nGetters = descriptor.getGetterCount();
+		writeLength(nGetters);
+		for (int i = 0; i < nGetters; i++) {
+			writeName(descriptor.getName(i));
+			write(accessor.get(value, i));
 		}
-		writeInt(nGetters);
-		for (Method method : methods) {
-			if (!method.getName().startsWith("get")
-					&& !method.getName().startsWith("is")
-					|| method.getParameterTypes().length != 0)
+	}
+
+	/**
+	 * Encode a bean using its schema.
+	 * 
+	 * The first bean of a class in a message is preceded by its schema: 0,
+	 * the schema hash, the class name, the number of fields and the name and
+	 * type of each field. Later beans of the class refer to the schema by its
+	 * index plus one. The values follow as a null bitmap and the non null
+	 * values in field order. Primitive fields are written without a type tag.
+	 * 
+	 * @param value
+	 *            the value
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void encodeBean(Object value) throws Exception {
+		BeanDescriptor descriptor = BeanDescriptor.forClass(value.getClass());
+		BeanSchema schema = descriptor.getSchema();
+		writeByte(BEAN);
+		if (writeSchemas == null)
+			writeSchemas = new HashMap<BeanSchema, Integer>();
+		Integer id = writeSchemas.get(schema);
+		int n = schema.getFieldCount();
+		if (id != null) {
+			writeVarInt(id + 1);
+		} else {
+			writeVarInt(0);
+			writeLong(schema.getHash());
+			writeName(schema.getClassName());
+			writeLength(n);
+			for (int i = 0; i < n; i++) {
+				writeName(schema.getName(i));
+				writeByte(schema.getType(i));
+			}
+			writeSchemas.put(schema, writeSchemas.size());
+		}
+		BeanAccessor accessor = context.getAccessor(descriptor);
+		Object[] values = new Object[n];
+		byte[] nulls = new byte[(n + 7) / 8];
+		for (int i = 0; i < n; i++) {
+			values[i] = accessor.get(value, i);
+			if (values[i] == null)
+				nulls[i >> 3] |= 1 << (i & 7);
+		}
+		writeBytes(nulls);
+		for (int i = 0; i < n; i++) {
+			if (values[i] != null)
+				writeField(schema.getType(i), values[i]);
+		}
+	}
+
+	/**
+	 * Decode a bean written by {@link #encodeBean(Object)}.
+	 * 
+	 * @return the object
+	 * @throws Exception
+	 *             the exception
+	 */
+	private Object decodeBean() throws Exception {
+		if (readSchemas == null)
+			readSchemas = new ArrayList<BeanSchema>();
+		int ref = readVarInt();
+		if (ref < 0 || ref > readSchemas.size())
+			throw new IOException("Invalid schema reference " + ref);
+		BeanSchema schema = ref > 0 ? readSchemas.get(ref - 1) : readSchema();
+		BeanDescriptor descriptor = schema.getDescriptor();
+		BeanAccessor accessor = context.getAccessor(descriptor);
+		Object instance = descriptor.newInstance();
+		addReference(instance);
+		int n = schema.getFieldCount();
+		byte[] nulls = new byte[(n + 7) / 8];
+		readFully(nulls);
+		for (int i = 0; i < n; i++) {
+			Object value = (nulls[i >> 3] & 1 << (i & 7)) != 0 ? null
+					: readField(schema.getType(i));
+			int index = schema.getIndex(i);
+			if (index == -1 || descriptor.getSetter(index) == null)
 				continue;
-			Object getValue = method.invoke(value);
-			encodeGetterValue(getValue, method.getName());
+			accessor.set(instance, index, value);
 		}
+		return instance;
 	}
 
 	/**
-	 * Find setter.
+	 * Read a schema definition. Schemas are cached by the message context so
+	 * that a schema is bound to the local class only once.
 	 * 
-	 * @param klass
-	 *            the klass
-	 * @param methodName
-	 *            the method name
-	 * @return the method
-	 */
-	private Method findSetter(Class<?> klass, String methodName) {
-		Method[] methods = klass.getMethods();
-		for (Method method : methods) {
-			if (method.getName().equals("set" + methodName)
-					&& method.getParameterTypes().length == 1)
-				return method;
+	 * @return the schema
+	 * @throws Exception
+	 *             the exception
+	 */
+	private BeanSchema readSchema() throws Exception {
+		long hash = readLong();
+		String className = readName();
+		int n = readLength(2);
+		String[] names = new String[n];
+		byte[] types = new byte[n];
+		for (int i = 0; i < n; i++) {
+			names[i] = readName();
+			types[i] = readByte();
+		}
+		BeanSchema schema = context.getSchema(hash);
+		if (schema == null || !schema.getClassName().equals(className)) {
+			schema = new BeanSchema(className, names, types);
+			schema.bind(BeanDescriptor.forClass(context.getClassResolver()
+					.resolve(className)));
+			context.putSchema(schema);
+		}
+		readSchemas.add(schema);
+		return schema;
+	}
+
+	private void writeField(byte type, Object value) throws Exception {
+		switch (type) {
+		case BeanSchema.FIELD_INT:
+			writeIntValue(((Integer) value).intValue());
+			break;
+		case BeanSchema.FIELD_LONG:
+			writeLongValue(((Long) value).longValue());
+			break;
+		case BeanSchema.FIELD_SHORT:
+			writeShortValue(((Short) value).shortValue());
+			break;
+		case BeanSchema.FIELD_BYTE:
+			writeByte(((Byte) value).byteValue());
+			break;
+		case BeanSchema.FIELD_BOOLEAN:
+			writeBoolean(((Boolean) value).booleanValue());
+			break;
+		case BeanSchema.FIELD_DOUBLE:
+			writeDouble(((Double) value).doubleValue());
+			break;
+		case BeanSchema.FIELD_FLOAT:
+			writeFloat(((Float) value).floatValue());
+			break;
+		default:
+			write(value);
+		}
+	}
+
+	private Object readField(byte type) throws Exception {
+		switch (type) {
+		case BeanSchema.FIELD_INT:
+			return readIntValue();
+		case BeanSchema.FIELD_LONG:
+			return readLongValue();
+		case BeanSchema.FIELD_SHORT:
+			return readShortValue();
+		case BeanSchema.FIELD_BYTE:
+			return readByte();
+		case BeanSchema.FIELD_BOOLEAN:
+			return readBoolean();
+		case BeanSchema.FIELD_DOUBLE:
+			return readDouble();
+		case BeanSchema.FIELD_FLOAT:
+			return readFloat();
+		default:
+			return read();
 		}
-		return null;
 	}
 }
@@ -0,0 +1,111 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timer of a connection for sweeping the leases of its handles and
+ * renewing the leases of the remote handles it holds.
+ *
+ * The timer thread is a daemon thread created when the first task is
+ * scheduled, so that a connection that does not use leases has no thread.
+ * After {@link #shutdown()} no more tasks are scheduled.
+ */
+public class LeaseTimer {
+
+	private final String name;
+	private ScheduledExecutorService executor;
+	private boolean shutdown;
+
+	/**
+	 * Instantiates a new lease timer.
+	 *
+	 * @param name
+	 *            the name of the timer thread
+	 */
+	public LeaseTimer(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Run a task once after the given delay.
+	 *
+	 * @param task
+	 *            the task
+	 * @param delay
+	 *            the delay in milliseconds
+	 * @return the future of the task or null if the timer is shut down
+	 */
+	public synchronized ScheduledFuture<?> schedule(Runnable task, long delay) {
+		if (shutdown)
+			return null;
+		return getExecutor().schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Run a task every period.
+	 *
+	 * @param task
+	 *            the task
+	 * @param period
+	 *            the period in milliseconds
+	 * @return the future of the task or null if the timer is shut down
+	 */
+	public synchronized ScheduledFuture<?> scheduleAtFixedRate(Runnable task,
+			long period) {
+		if (shutdown)
+			return null;
+		return getExecutor().scheduleAtFixedRate(task, period, period,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Checks whether the timer thread has been created.
+	 *
+	 * @return true, if the timer is started and not shut down
+	 */
+	public synchronized boolean isStarted() {
+		return executor != null && !shutdown;
+	}
+
+	/**
+	 * Cancel the scheduled tasks and stop the timer thread.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		if (executor != null)
+			executor.shutdownNow();
+		executor = null;
+	}
+
+	private ScheduledExecutorService getExecutor() {
+		if (executor == null)
+			executor = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, name);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		return executor;
+	}
+}
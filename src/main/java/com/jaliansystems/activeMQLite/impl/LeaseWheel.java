@@ -0,0 +1,117 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A timer wheel for the leases of handles.
+ *
+ * Time is divided into ticks of the sweep interval and the wheel has a slot
+ * for each tick of a lease. A handle is put into the slot of the tick in which
+ * its lease ends. Renewing a lease only changes the expiry of the handle, the
+ * handle is moved to a later slot when its slot comes up, so that renewals do
+ * not touch the wheel.
+ *
+ * A wheel is replaced when the lease duration changes. The old wheel is
+ * closed and its handles are moved to the new one.
+ */
+public class LeaseWheel {
+
+	private final long tick;
+	private final List<List<ObjectHandle>> slots;
+	private long current;
+	private boolean closed;
+
+	/**
+	 * Instantiates a new lease wheel.
+	 *
+	 * @param tick
+	 *            the length of a tick in milliseconds
+	 * @param leaseDuration
+	 *            the lease duration in milliseconds
+	 * @param now
+	 *            the current time
+	 */
+	public LeaseWheel(long tick, long leaseDuration, long now) {
+		this.tick = Math.max(1, tick);
+		int n = (int) ((leaseDuration + this.tick - 1) / this.tick) + 2;
+		slots = new ArrayList<List<ObjectHandle>>(n);
+		for (int i = 0; i < n; i++)
+			slots.add(new ArrayList<ObjectHandle>());
+		current = now / this.tick;
+	}
+
+	/**
+	 * Schedule a handle for the end of its lease.
+	 *
+	 * @param handle
+	 *            the handle
+	 * @param expiry
+	 *            the time the lease ends
+	 * @return false if the wheel is closed and the handle was not scheduled
+	 */
+	public synchronized boolean schedule(ObjectHandle handle, long expiry) {
+		if (closed)
+			return false;
+		long t = (expiry + tick - 1) / tick;
+		if (t <= current)
+			t = current + 1;
+		else if (t >= current + slots.size())
+			t = current + slots.size() - 1;
+		slots.get((int) (t % slots.size())).add(handle);
+		return true;
+	}
+
+	/**
+	 * Close the wheel and take out all the handles scheduled on it.
+	 * 
+	 * @return the handles
+	 */
+	public synchronized List<ObjectHandle> close() {
+		closed = true;
+		List<ObjectHandle> all = new ArrayList<ObjectHandle>();
+		for (List<ObjectHandle> slot : slots) {
+			all.addAll(slot);
+			slot.clear();
+		}
+		return all;
+	}
+
+	/**
+	 * Advance the wheel to the given time.
+	 *
+	 * @param now
+	 *            the current time
+	 * @return the handles in the slots passed, their leases may have been
+	 *         renewed in the meantime
+	 */
+	public synchronized List<ObjectHandle> advance(long now) {
+		long target = now / tick;
+		List<ObjectHandle> due = new ArrayList<ObjectHandle>();
+		long passed = Math.min(target - current, slots.size());
+		for (long i = 1; i <= passed; i++) {
+			List<ObjectHandle> slot = slots.get((int) ((current + i) % slots
+					.size()));
+			due.addAll(slot);
+			slot.clear();
+		}
+		if (target > current)
+			current = target;
+		return due;
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jaliansystems.activeMQLite.ClassResolver;
+
+/**
+ * The settings used for encoding and decoding JMSLiteMessages.
+ *
+ * Each JMSConnection owns a MessageContext that is shared by its repository
+ * client and service. Messages created without a context use
+ * {@link #getDefault()}.
+ */
+public class MessageContext {
+
+	private static final MessageContext DEFAULT = new MessageContext();
+
+	private volatile boolean useGeneratedAccessors = false;
+	private volatile int features = 0;
+	private volatile int compressionThreshold = 0;
+	private final CodecRegistry codecs = new CodecRegistry();
+	private final ClassResolver classResolver = new ClassResolver();
+	private final ConcurrentHashMap<Long, BeanSchema> schemas = new ConcurrentHashMap<Long, BeanSchema>();
+	private final ConcurrentHashMap<String, Integer> peers = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Gets the default context.
+	 *
+	 * @return the default context
+	 */
+	public static MessageContext getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Checks whether beans are accessed through generated accessors.
+	 *
+	 * @return true, if generated accessors are used
+	 */
+	public boolean isUseGeneratedAccessors() {
+		return useGeneratedAccessors;
+	}
+
+	/**
+	 * Use generated accessors instead of reflection for reading and writing
+	 * bean properties.
+	 *
+	 * @param useGeneratedAccessors
+	 *            true to use generated accessors
+	 */
+	public void setUseGeneratedAccessors(boolean useGeneratedAccessors) {
+		this.useGeneratedAccessors = useGeneratedAccessors;
+	}
+
+	/**
+	 * Gets the features used for encoding new messages.
+	 *
+	 * @return the features
+	 */
+	public int getFeatures() {
+		return features;
+	}
+
+	/**
+	 * Gets the features used for encoding messages to a peer. These are the
+	 * enabled features that the peer can decode. A peer that did not tell its
+	 * features gets the plain encoding.
+	 *
+	 * @param peer
+	 *            the queue of the peer
+	 * @return the features
+	 */
+	public int getFeatures(String peer) {
+		Integer supported = peers.get(peer);
+		return supported == null ? 0 : features & supported.intValue();
+	}
+
+	/**
+	 * Checks whether messages to a peer may be compressed.
+	 *
+	 * @param peer
+	 *            the queue of the peer
+	 * @return true, if the peer told that it can decode compressed messages
+	 */
+	public boolean isCompressionSupported(String peer) {
+		Integer supported = peers.get(peer);
+		return supported != null
+				&& (supported.intValue() & JMSLiteMessage.FLAG_COMPRESSED) != 0;
+	}
+
+	/**
+	 * Checks whether strings longer than 64K may be written to a peer.
+	 *
+	 * @param peer
+	 *            the queue of the peer
+	 * @return true, if the peer told that it can decode LONG_STRING
+	 */
+	public boolean isLongStringSupported(String peer) {
+		Integer supported = peers.get(peer);
+		return supported != null
+				&& (supported.intValue() & JMSLiteMessage.FLAG_LONG_STRINGS) != 0;
+	}
+
+	/**
+	 * Checks whether removes may be sent to a peer without a reply
+	 * destination.
+	 *
+	 * @param peer
+	 *            the queue of the peer
+	 * @return true, if the peer told that it does not answer such removes
+	 */
+	public boolean isOneWayRemoveSupported(String peer) {
+		Integer supported = peers.get(peer);
+		return supported != null
+				&& (supported.intValue() & JMSLiteMessage.FLAG_ONE_WAY_REMOVES) != 0;
+	}
+
+	/**
+	 * Remember the features a peer can decode, as exchanged when an object is
+	 * looked up. A peer of an older version is remembered with no features.
+	 *
+	 * @param peer
+	 *            the queue of the peer
+	 * @param supported
+	 *            the features supported by the peer
+	 */
+	public void setPeerFeatures(String peer, int supported) {
+		peers.put(peer, Integer.valueOf(supported));
+	}
+
+	/**
+	 * Enable or disable an encoding feature. The features are defined in
+	 * {@link JMSLiteMessage}.
+	 *
+	 * @param feature
+	 *            the feature
+	 * @param enable
+	 *            true to enable
+	 */
+	public synchronized void setFeature(int feature, boolean enable) {
+		if (enable)
+			features |= feature;
+		else
+			features &= ~feature;
+	}
+
+	/**
+	 * Gets the body size from which messages are compressed.
+	 *
+	 * @return the compression threshold, 0 if compression is disabled
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * Compress the bodies of messages that are at least the given number of
+	 * bytes long.
+	 *
+	 * @param compressionThreshold
+	 *            the threshold in bytes, 0 to disable compression
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Gets the codecs used for encoding and decoding values.
+	 *
+	 * @return the codec registry
+	 */
+	public CodecRegistry getCodecs() {
+		return codecs;
+	}
+
+	/**
+	 * Gets the resolver used for loading classes named in messages.
+	 *
+	 * @return the class resolver
+	 */
+	public ClassResolver getClassResolver() {
+		return classResolver;
+	}
+
+	/**
+	 * Gets the accessor to be used for the given bean.
+	 *
+	 * @param descriptor
+	 *            the bean descriptor
+	 * @return the accessor
+	 */
+	public BeanAccessor getAccessor(BeanDescriptor descriptor) {
+		return descriptor.getAccessor(useGeneratedAccessors);
+	}
+
+	/**
+	 * Gets a schema received earlier.
+	 *
+	 * @param hash
+	 *            the schema hash
+	 * @return the schema or null if it is not known
+	 */
+	public BeanSchema getSchema(long hash) {
+		return schemas.get(hash);
+	}
+
+	/**
+	 * Remember a received schema that is bound to a local class.
+	 *
+	 * @param schema
+	 *            the schema
+	 */
+	public void putSchema(BeanSchema schema) {
+		schemas.put(schema.getHash(), schema);
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The methods of an interface in a fixed order.
+ *
+ * The methods are sorted by their signature, the name followed by the
+ * parameter types, so that both ends of a connection build the same table from
+ * the interface. A call refers to its method by the index in the table and the
+ * hash of the signature. The hash catches tables built from different versions
+ * of an interface.
+ */
+public class MethodTable {
+
+	private final Class<?> iface;
+	private final Method[] methods;
+	private final int[] signatures;
+	private final Map<Method, Integer> indexes = new HashMap<Method, Integer>();
+
+	/**
+	 * Instantiates a new method table.
+	 *
+	 * @param iface
+	 *            the interface
+	 */
+	public MethodTable(Class<?> iface) {
+		this.iface = iface;
+		TreeMap<String, Method> sorted = new TreeMap<String, Method>();
+		for (Method method : iface.getMethods()) {
+			String signature = getSignature(method);
+			if (!sorted.containsKey(signature))
+				sorted.put(signature, method);
+		}
+		methods = new Method[sorted.size()];
+		signatures = new int[sorted.size()];
+		Map<String, Integer> bySignature = new HashMap<String, Integer>();
+		int index = 0;
+		for (Map.Entry<String, Method> entry : sorted.entrySet()) {
+			methods[index] = entry.getValue();
+			signatures[index] = entry.getKey().hashCode();
+			try {
+				methods[index].setAccessible(true);
+			} catch (SecurityException e) {
+			}
+			bySignature.put(entry.getKey(), index++);
+		}
+		for (Method method : iface.getMethods())
+			indexes.put(method, bySignature.get(getSignature(method)));
+	}
+
+	/**
+	 * Gets the signature of a method, the name and the parameter types.
+	 *
+	 * @param method
+	 *            the method
+	 * @return the signature
+	 */
+	public static String getSignature(Method method) {
+		StringBuilder sb = new StringBuilder(method.getName()).append('(');
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(parameterTypes[i].getName());
+		}
+		return sb.append(')').toString();
+	}
+
+	/**
+	 * Gets the interface.
+	 *
+	 * @return the interface
+	 */
+	public Class<?> getInterface() {
+		return iface;
+	}
+
+	/**
+	 * Gets the index of a method of the interface.
+	 *
+	 * @param method
+	 *            the method
+	 * @return the index or -1 if the method is not in the table
+	 */
+	public int indexOf(Method method) {
+		Integer index = indexes.get(method);
+		return index == null ? -1 : index.intValue();
+	}
+
+	/**
+	 * Gets the signature hash of the method at the given index.
+	 *
+	 * @param index
+	 *            the index
+	 * @return the signature hash
+	 */
+	public int getSignatureHash(int index) {
+		return signatures[index];
+	}
+
+	/**
+	 * Gets the method at the given index.
+	 *
+	 * @param index
+	 *            the index
+	 * @param signature
+	 *            the signature hash expected for the method
+	 * @return the method or null if there is no method with the index or its
+	 *         signature does not match
+	 */
+	public Method getMethod(int index, int signature) {
+		if (index < 0 || index >= methods.length
+				|| signatures[index] != signature)
+			return null;
+		return methods[index];
+	}
+
+	/**
+	 * Gets the number of methods.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return methods.length;
+	}
+}
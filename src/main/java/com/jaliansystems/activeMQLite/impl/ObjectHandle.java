@@ -15,6 +15,8 @@
  */
 package com.jaliansystems.activeMQLite.impl;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Object handle represents a exported object on wire
  */
@@ -30,7 +32,8 @@ public class ObjectHandle {
 	private Class<?> iface;
 	private String queueName;
 	private boolean local = false;
-	private int retainCount;
+	private final AtomicInteger retainCount = new AtomicInteger();
+	private volatile long leaseExpiry;
 
 	/**
 	 * Instantiates a new object handle.
@@ -67,7 +70,8 @@ public class ObjectHandle {
 		id = (Integer) message.read();
 		brokerURL = (String) message.read();
 		queueName = (String) message.read();
-		iface = Class.forName((String) message.read());
+		iface = message.getContext().getClassResolver().resolve(
+				(String) message.read());
 	}
 
 	/**
@@ -78,9 +82,9 @@ public class ObjectHandle {
 	 */
 	public void encode(JMSLiteMessage message) throws Exception {
 		message.write(id);
-		message.write(brokerURL);
-		message.write(queueName);
-		message.write(iface.getName());
+		message.writeSymbol(brokerURL);
+		message.writeSymbol(queueName);
+		message.writeSymbol(iface.getName());
 	}
 
 	/*
@@ -187,7 +191,23 @@ public class ObjectHandle {
 	 * Increase the retain count
 	 */
 	public void retain() {
-		this.retainCount++ ;
+		retainCount.incrementAndGet();
+	}
+
+	/**
+	 * Increase the retain count unless the handle has been released. A
+	 * released handle stays released.
+	 * 
+	 * @return true if the handle was retained
+	 */
+	public boolean tryRetain() {
+		while (true) {
+			int count = retainCount.get();
+			if (count <= 0)
+				return false;
+			if (retainCount.compareAndSet(count, count + 1))
+				return true;
+		}
 	}
 
 	/**
@@ -196,6 +216,49 @@ public class ObjectHandle {
 	 * @return true if the handle should be released
 	 */
 	public boolean release() {
-		return --retainCount == 0 ;
+		while (true) {
+			int count = retainCount.get();
+			if (count <= 0)
+				return false;
+			if (retainCount.compareAndSet(count, count - 1))
+				return count == 1;
+		}
+	}
+
+	/**
+	 * Drop all the retains of the handle, when its lease has expired.
+	 * 
+	 * @return true if the handle was retained
+	 */
+	public boolean releaseAll() {
+		return retainCount.getAndSet(0) > 0;
+	}
+
+	/**
+	 * Gets the time at which the lease of the handle ends.
+	 * 
+	 * @return the lease expiry
+	 */
+	public long getLeaseExpiry() {
+		return leaseExpiry;
+	}
+
+	/**
+	 * Sets the time at which the lease of the handle ends.
+	 * 
+	 * @param leaseExpiry
+	 *            the lease expiry
+	 */
+	public void setLeaseExpiry(long leaseExpiry) {
+		this.leaseExpiry = leaseExpiry;
+	}
+
+	/**
+	 * Gets the retain count.
+	 * 
+	 * @return the retain count
+	 */
+	public int getRetainCount() {
+		return retainCount.get();
 	}
 }
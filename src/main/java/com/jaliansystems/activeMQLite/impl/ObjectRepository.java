@@ -15,13 +15,22 @@
  */
 package com.jaliansystems.activeMQLite.impl;
 
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,29 +43,131 @@ public class ObjectRepository {
 
 	private static final Log log = LogFactory.getLog(ObjectRepository.class);
 
-	/** The list of ObjectHandles. Overridden to add the trace messages */
-	private List<ObjectHandle> list = new ArrayList<ObjectHandle>() {
-		private static final long serialVersionUID = 1L;
+	/**
+	 * A key that compares objects by identity, so that objects with their own
+	 * equals get a handle of their own.
+	 */
+	private static final class IdentityKey {
+		private final Object object;
+
+		public IdentityKey(Object object) {
+			this.object = object;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IdentityKey
+					&& ((IdentityKey) obj).object == object;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(object);
+		}
+	}
+
+	/**
+	 * A key for the method resolved for a call on a class: the method name
+	 * and the classes of the arguments or, before the arguments are decoded,
+	 * their tags.
+	 */
+	private static final class MethodKey {
+		private final String name;
+		private final Class<?>[] argTypes;
+		private final byte[] tags;
+		private final int hash;
+
+		public MethodKey(String name, Object[] args) {
+			this.name = name;
+			argTypes = new Class<?>[args == null ? 0 : args.length];
+			tags = null;
+			int h = name.hashCode();
+			for (int i = 0; i < argTypes.length; i++) {
+				argTypes[i] = args[i] == null ? null : args[i].getClass();
+				h = h * 31 + (argTypes[i] == null ? 0 : argTypes[i].hashCode());
+			}
+			hash = h;
+		}
+
+		public MethodKey(String name, byte[] tags) {
+			this.name = name;
+			argTypes = null;
+			this.tags = tags;
+			hash = name.hashCode() * 31 + Arrays.hashCode(tags);
+		}
 
 		@Override
-		public boolean add(ObjectHandle e) {
-			log.trace("adding " + e);
-			return super.add(e);
-		};
+		public boolean equals(Object obj) {
+			if (!(obj instanceof MethodKey))
+				return false;
+			MethodKey other = (MethodKey) obj;
+			return name.equals(other.name)
+					&& Arrays.equals(argTypes, other.argTypes)
+					&& Arrays.equals(tags, other.tags);
+		}
 
 		@Override
-		public boolean remove(Object o) {
-			log.trace("removing " + o);
-			return super.remove(o);
-		};
-	};
-
-	private Map<Class<?>, Object> publishedInterfaces = new HashMap<Class<?>, Object>();
-	private List<Class<?>> exportedInterfaces = new ArrayList<Class<?>>();
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * The methods of a class resolved for calls by name.
+	 */
+	private static final class ClassMethods {
+		/** The methods resolved for calls by name. */
+		private final ConcurrentHashMap<MethodKey, Method> methods = new ConcurrentHashMap<MethodKey, Method>();
+
+		/** Whether a method takes the arguments with the tags of a call. */
+		private final ConcurrentHashMap<MethodKey, Boolean> argumentChecks = new ConcurrentHashMap<MethodKey, Boolean>();
+	}
+
+	/** The local ObjectHandles by their id. */
+	private final HandleTable handles = new HandleTable();
+
+	/** The local ObjectHandles by the identity of their objects. */
+	private final ConcurrentHashMap<IdentityKey, ObjectHandle> objects = new ConcurrentHashMap<IdentityKey, ObjectHandle>();
+
+	/** The method tables of the interfaces called through this repository. */
+	private final ConcurrentHashMap<Class<?>, MethodTable> methodTables = new ConcurrentHashMap<Class<?>, MethodTable>();
+
+	/**
+	 * The methods resolved for calls by name, by the class of the target.
+	 * Weakly keyed like the bean descriptors so that classes can be unloaded.
+	 */
+	private final Map<Class<?>, SoftReference<ClassMethods>> methodCache = Collections
+			.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<ClassMethods>>());
+
+	/** The calls by name whose method was found in the method cache. */
+	private final AtomicLong methodCacheHits = new AtomicLong();
+
+	/** The calls by name whose method was searched for. */
+	private final AtomicLong methodCacheMisses = new AtomicLong();
+
+	private final ConcurrentHashMap<Class<?>, Object> publishedInterfaces = new ConcurrentHashMap<Class<?>, Object>();
+
+	/** The exported interfaces, used as a set. */
+	private final ConcurrentHashMap<Class<?>, Boolean> exportedInterfaces = new ConcurrentHashMap<Class<?>, Boolean>();
+
+	/**
+	 * The exported interface each type resolves to, see
+	 * {@link #getExportedInterface(Class)}. Replaced when an interface is
+	 * exported.
+	 */
+	private volatile ConcurrentHashMap<Class<?>, Class<?>> exportResolution = new ConcurrentHashMap<Class<?>, Class<?>>();
+
+	/** Marks types in the export resolution that are not exported. */
+	private static final Class<?> NOT_EXPORTED = Void.TYPE;
 	private String brokerURL;
 
+	/** The lease of handles in milliseconds, 0 if handles are not leased. */
+	private volatile long leaseDuration;
+	private volatile LeaseWheel leaseWheel;
+	private final AtomicLong expiredHandles = new AtomicLong();
+
 	private String queueName;
-	private int objectID = 0;
+	private final AtomicInteger objectID = new AtomicInteger();
 
 	/**
 	 * Instantiates a new object repository.
@@ -71,9 +182,20 @@ public class ObjectRepository {
 		this.queueName = queueName;
 	}
 
+	/**
+	 * Gets the name of the queue on which the objects of this repository are
+	 * invoked.
+	 * 
+	 * @return the queue name
+	 */
+	public String getQueueName() {
+		return queueName;
+	}
+
 	/**
 	 * Creates or returns a new ObjectHandle for the given object. This
-	 * ObjectHandle can be used to retrieve the object.
+	 * ObjectHandle can be used to retrieve the object. The handle is given to
+	 * a remote connection and is leased when leasing is enabled.
 	 * 
 	 * @param o
 	 *            the object for which the handle is required.
@@ -82,22 +204,59 @@ public class ObjectRepository {
 	 * @return the object handle
 	 */
 	public ObjectHandle createHandle(Object o, Class<?> iface) {
-		for (int i = 0; i < list.size(); i++) {
-			ObjectHandle objectHandle = list.get(i);
-			if (objectHandle.getObject() == o) {
-				objectHandle.retain();
-				return objectHandle;
+		return createHandle(o, iface, true);
+	}
+
+	private ObjectHandle createHandle(Object o, Class<?> iface, boolean leased) {
+		IdentityKey key = new IdentityKey(o);
+		while (true) {
+			ObjectHandle handle = objects.get(key);
+			if (handle == null) {
+				ObjectHandle created = new ObjectHandle(objectID
+						.incrementAndGet(), o, iface, brokerURL, queueName);
+				created.retain();
+				handles.put(created.getID(), created);
+				handle = objects.putIfAbsent(key, created);
+				if (handle == null) {
+					log.trace("adding " + created);
+					if (leased)
+						lease(created);
+					return created;
+				}
+				handles.remove(created.getID(), created);
 			}
+			if (leased)
+				lease(handle);
+			if (handle.tryRetain())
+				return handle;
+			// Released by another thread, which removes it shortly
+			objects.remove(key, handle);
 		}
-		int index;
-		synchronized (this) {
-			index = ++objectID;
-		}
-		ObjectHandle handle = new ObjectHandle(index, o, iface, brokerURL,
-				queueName);
-		handle.retain();
-		list.add(handle);
-		return handle;
+	}
+
+	/**
+	 * Start or renew the lease of a handle given to a remote connection.
+	 */
+	private void lease(ObjectHandle handle) {
+		if (leaseWheel == null)
+			return;
+		boolean scheduled = handle.getLeaseExpiry() != 0;
+		handle.setLeaseExpiry(currentTimeMillis() + leaseDuration);
+		if (!scheduled)
+			scheduleLease(handle);
+	}
+
+	/**
+	 * Gets the local handle that is equal to the given handle.
+	 * 
+	 * @param handle
+	 *            the handle
+	 * @return the local handle or null if the handle is not in this
+	 *         repository
+	 */
+	private ObjectHandle getLocalHandle(ObjectHandle handle) {
+		ObjectHandle local = handles.get(handle.getID());
+		return local != null && local.equals(handle) ? local : null;
 	}
 
 	/**
@@ -117,14 +276,17 @@ public class ObjectRepository {
 	 */
 	public Object lookupHandle(ObjectHandle handle, RepositoryClient client)
 			throws Exception {
-		if (list.contains(handle)) {
-			int index = list.indexOf(handle);
-			return list.get(index).getObject();
-		}
+		ObjectHandle local = getLocalHandle(handle);
+		if (local != null)
+			return local.getObject();
 		RemoteInvocationHandler handler = new RemoteInvocationHandler(handle,
 				client);
-		return Proxy.newProxyInstance(handle.getIFace().getClassLoader(),
-				new Class[] { handle.getIFace(), IProxy.class }, handler);
+		Object proxy = Proxy.newProxyInstance(handle.getIFace()
+				.getClassLoader(), new Class[] { handle.getIFace(),
+				IProxy.class }, handler);
+		if (client != null)
+			client.trackProxy(proxy, handle);
+		return proxy;
 	}
 
 	/**
@@ -151,15 +313,149 @@ public class ObjectRepository {
 			throw new IllegalArgumentException(
 					"In encodeMethodCall number of parameters and arguments do not match");
 		message.write(objectHandle);
-		message.write(method.getName());
+		int index = -1;
+		if ((message.getFeatures() & JMSLiteMessage.FEATURE_METHOD_IDS) != 0) {
+			MethodTable table = getMethodTable(objectHandle.getIFace());
+			index = table.indexOf(method);
+			if (index >= 0)
+				message.writeMethodId(index, table.getSignatureHash(index));
+		}
+		if (index < 0)
+			message.write(method.getName());
 
-		for (int i = 0; i < parameterTypes.length; i++) {
-			if (parameterTypes[i].isInterface()
-					&& exportedInterfaces.contains(parameterTypes[i])) {
-				args[i] = createHandle(args[i], parameterTypes[i]);
+		for (int i = 0; i < parameterTypes.length; i++)
+			args[i] = exportValue(args[i], parameterTypes[i]);
+		message.writeArguments(args);
+	}
+
+	/**
+	 * Replace a value passed as the given type by handles when the type is an
+	 * exported interface or an array of one.
+	 */
+	private Object exportValue(Object value, Class<?> type) {
+		if (value == null)
+			return null;
+		if (type.isArray()) {
+			Class<?> componentType = type.getComponentType();
+			if (getExportedInterface(componentType) == null)
+				return value;
+			Object[] values = (Object[]) value;
+			Object[] handles = new Object[values.length];
+			for (int i = 0; i < values.length; i++)
+				if (values[i] != null)
+					handles[i] = createHandle(values[i], componentType);
+			return handles;
+		}
+		if (getExportedInterface(type) == null)
+			return value;
+		return createHandle(value, type);
+	}
+
+	/**
+	 * Gets the exported interface a type resolves to. An exported interface
+	 * resolves to itself and an interface extending exported interfaces to
+	 * the most specific of them. Values of such types are passed as handles.
+	 * The answer is cached per type.
+	 * 
+	 * @param type
+	 *            the type
+	 * @return the exported interface or null if the type is not exported
+	 */
+	public Class<?> getExportedInterface(Class<?> type) {
+		ConcurrentHashMap<Class<?>, Class<?>> resolution = exportResolution;
+		Class<?> resolved = resolution.get(type);
+		if (resolved == null) {
+			resolved = NOT_EXPORTED;
+			if (type.isInterface()) {
+				if (exportedInterfaces.containsKey(type))
+					resolved = type;
+				else
+					for (Class<?> exported : exportedInterfaces.keySet())
+						if (exported.isAssignableFrom(type)
+								&& (resolved == NOT_EXPORTED || resolved
+										.isAssignableFrom(exported)))
+							resolved = exported;
 			}
+			resolution.put(type, resolved);
+		}
+		return resolved == NOT_EXPORTED ? null : resolved;
+	}
+
+	private void addExportedInterface(Class<?> iface) {
+		if (exportedInterfaces.put(iface, Boolean.TRUE) == null)
+			exportResolution = new ConcurrentHashMap<Class<?>, Class<?>>();
+	}
+
+	/**
+	 * Replace handles in a received value by the objects or proxies they
+	 * refer to. The elements of an array are replaced in place.
+	 * 
+	 * @param value
+	 *            the value
+	 * @param client
+	 *            the repository client
+	 * @return the value with the handles replaced
+	 * @throws Exception
+	 *             the exception
+	 */
+	public Object lookupHandles(Object value, RepositoryClient client)
+			throws Exception {
+		if (value instanceof ObjectHandle)
+			return lookupHandle((ObjectHandle) value, client);
+		if (value instanceof Object[]) {
+			Object[] values = (Object[]) value;
+			for (int i = 0; i < values.length; i++)
+				if (values[i] instanceof ObjectHandle)
+					values[i] = lookupHandle((ObjectHandle) values[i], client);
+		}
+		return value;
+	}
+
+	/**
+	 * Converts a decoded array to an array of the given type.
+	 * 
+	 * Arrays of objects are decoded as Object[]. A parameter or return value
+	 * declared with another array type gets a copy when all elements are
+	 * instances of its component type.
+	 * 
+	 * @param type
+	 *            the array type
+	 * @param value
+	 *            the decoded value
+	 * @return the converted value or null if the value can not be converted
+	 */
+	static Object convertArray(Class<?> type, Object value) {
+		if (!type.isArray() || type.getComponentType().isPrimitive()
+				|| !(value instanceof Object[]))
+			return null;
+		Object[] values = (Object[]) value;
+		Class<?> componentType = type.getComponentType();
+		Object[] converted = (Object[]) Array.newInstance(componentType,
+				values.length);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null && !componentType.isInstance(values[i]))
+				return null;
+			converted[i] = values[i];
+		}
+		return converted;
+	}
+
+	/**
+	 * Gets the method table of an interface.
+	 * 
+	 * @param iface
+	 *            the interface
+	 * @return the method table
+	 */
+	public MethodTable getMethodTable(Class<?> iface) {
+		MethodTable table = methodTables.get(iface);
+		if (table == null) {
+			table = new MethodTable(iface);
+			MethodTable existing = methodTables.putIfAbsent(iface, table);
+			if (existing != null)
+				table = existing;
 		}
-		message.write(args);
+		return table;
 	}
 
 	/**
@@ -169,7 +465,8 @@ public class ObjectRepository {
 	 *            the ifaces
 	 */
 	public void exportInterfaces(Class<?>... ifaces) {
-		exportedInterfaces.addAll(Arrays.asList(ifaces));
+		for (Class<?> iface : ifaces)
+			addExportedInterface(iface);
 	}
 
 	/**
@@ -180,11 +477,8 @@ public class ObjectRepository {
 	 * @return the object
 	 */
 	public Object getObject(ObjectHandle handle) {
-		if (list.contains(handle)) {
-			int index = list.indexOf(handle);
-			return list.get(index).getObject();
-		}
-		return null;
+		ObjectHandle local = getLocalHandle(handle);
+		return local == null ? null : local.getObject();
 	}
 
 	/**
@@ -203,6 +497,13 @@ public class ObjectRepository {
 	/**
 	 * Invoke a method on a local object.
 	 * 
+	 * The target object is looked up before the arguments are decoded. When
+	 * the arguments are written with their tags, see
+	 * {@link JMSLiteMessage#FEATURE_LAZY_ARGS}, a call for which no method
+	 * matches the tags is rejected before the arguments are decoded. A method
+	 * sent by its id, see {@link JMSLiteMessage#FEATURE_METHOD_IDS}, is taken
+	 * from the method table of the interface of the target.
+	 * 
 	 * @param message
 	 *            the message received.
 	 * @param client
@@ -214,29 +515,47 @@ public class ObjectRepository {
 	public Object invoke(JMSLiteMessage message, RepositoryClient client)
 			throws Exception {
 		ObjectHandle handle = (ObjectHandle) message.read();
-		String methodName = (String) message.read();
-		Object[] args = (Object[]) message.read();
+		int[] methodId = message.readMethodId();
+		String methodName = methodId == null ? (String) message.read() : null;
 
-		Object object = getObject(handle);
-		if (object == null)
+		ObjectHandle local = getLocalHandle(handle);
+		if (local == null)
 			throw new IllegalArgumentException("Could not find local object: "
 					+ handle);
+		Object object = local.getObject();
+		Method method = null;
+		if (methodId != null) {
+			method = getMethodTable(local.getIFace()).getMethod(methodId[0],
+					methodId[1]);
+			if (method == null)
+				throw new NoSuchMethodError("Could not find method with id: "
+						+ methodId[0] + " on interface "
+						+ local.getIFace().getName());
+			methodName = method.getName();
+		}
+		Object[] args;
+		byte[] types = message.readArgumentTypes();
+		if (types != null) {
+			if (method != null ? !typesMatch(method, types) : !hasMethod(
+					object, methodName, types))
+				throw new NoSuchMethodError("Could not find method: "
+						+ methodName + " on Object of type "
+						+ object.getClass().getName());
+			args = message.readArguments(types);
+		} else
+			args = (Object[]) message.read();
 		if (client != null && args != null)
-			for (int i = 0; i < args.length; i++) {
-				if (args[i] != null && args[i] instanceof ObjectHandle)
-					args[i] = lookupHandle((ObjectHandle) args[i], client);
-			}
-		Method method = findMethod(object, methodName, args);
+			for (int i = 0; i < args.length; i++)
+				args[i] = lookupHandles(args[i], client);
+		if (method == null)
+			method = findMethod(object, methodName, args);
+		else if (!paramMatches(method, args))
+			method = null;
 		if (method == null)
 			throw new NoSuchMethodError("Could not find method: " + methodName
 					+ " on Object of type " + object.getClass().getName());
 		Object rval = method.invoke(object, args);
-		Class<?> rtype = method.getReturnType();
-		if (rtype.isInterface() && exportedInterfaces.contains(rtype)
-				&& rval != null) {
-			rval = createHandle(rval, rtype);
-		}
-		return rval;
+		return exportValue(rval, method.getReturnType());
 	}
 
 	/**
@@ -270,8 +589,8 @@ public class ObjectRepository {
 			throw new IllegalArgumentException(
 					"The object should implement the interface");
 		publishedInterfaces.put(iface, o);
-		exportedInterfaces.add(iface);
-		return createHandle(o, iface);
+		addExportedInterface(iface);
+		return createHandle(o, iface, false);
 	}
 
 	/**
@@ -279,7 +598,7 @@ public class ObjectRepository {
 	 * 
 	 * When a remote object goes out of scope, a remove request is sent and
 	 * handled by this method. If the object is not held by any other object in
-	 * the application, the removal from the list should allow the object to be
+	 * the application, the removal from the repository should allow the object to be
 	 * GC'ed.
 	 * 
 	 * @param handle
@@ -287,40 +606,274 @@ public class ObjectRepository {
 	 * @return true, if successful
 	 */
 	public boolean removeObject(ObjectHandle handle) {
-		if (list.contains(handle)) {
-			int index = list.indexOf(handle);
-			handle = list.get(index);
-		} else {
+		ObjectHandle local = getLocalHandle(handle);
+		if (local == null) {
 			log.error("A remove request on non existant ObjectHandle" + handle);
 			return false ;
 		}
-		if (handle.release())
-			return list.remove(handle);
+		if (local.release()) {
+			log.trace("removing " + local);
+			handles.remove(local.getID(), local);
+			objects.remove(new IdentityKey(local.getObject()), local);
+		}
 		return true ;
 	}
 
+	/**
+	 * Lease the handles given out from now on.
+	 * 
+	 * A leased handle is removed, whatever its retain count, when its lease is
+	 * not renewed in time, see {@link #renewLeases(int[])}. The leases are
+	 * checked by {@link #expireLeases(long)}, which should be called every
+	 * sweep interval. A handle is leased from the first time it is given to a
+	 * remote connection while leasing is enabled, so the handle of a published
+	 * object is leased only once it is looked up. When the lease duration
+	 * changes the leased handles keep their current leases and are renewed
+	 * with the new duration. When leasing is stopped the leased handles no
+	 * longer expire.
+	 * 
+	 * @param leaseDuration
+	 *            the lease duration in milliseconds, 0 to stop leasing
+	 * @param sweepInterval
+	 *            the interval in milliseconds at which leases are checked
+	 * @throws IllegalArgumentException
+	 *             if the lease duration is negative or the sweep interval is
+	 *             not positive for a lease
+	 */
+	public synchronized void setLeaseDuration(long leaseDuration,
+			long sweepInterval) {
+		if (leaseDuration < 0 || leaseDuration > 0 && sweepInterval <= 0)
+			throw new IllegalArgumentException("Invalid lease " + leaseDuration
+					+ " with sweep interval " + sweepInterval);
+		LeaseWheel old = leaseWheel;
+		if (leaseDuration == 0) {
+			leaseWheel = null;
+			this.leaseDuration = 0;
+		} else {
+			this.leaseDuration = leaseDuration;
+			leaseWheel = new LeaseWheel(sweepInterval, leaseDuration,
+					currentTimeMillis());
+		}
+		if (old == null)
+			return;
+		for (ObjectHandle handle : old.close()) {
+			if (handles.get(handle.getID()) != handle)
+				continue;
+			if (leaseWheel == null)
+				handle.setLeaseExpiry(0);
+			else
+				scheduleLease(handle);
+		}
+	}
+
+	/**
+	 * Schedule a handle on the current lease wheel for the end of its lease.
+	 * A wheel that is closed while the handle is scheduled has been replaced,
+	 * the handle is scheduled on the new wheel.
+	 */
+	private void scheduleLease(ObjectHandle handle) {
+		LeaseWheel wheel;
+		while ((wheel = leaseWheel) != null
+				&& !wheel.schedule(handle, handle.getLeaseExpiry()))
+			;
+	}
+
+	/**
+	 * Gets the lease duration.
+	 * 
+	 * @return the lease duration in milliseconds, 0 if handles are not leased
+	 */
+	public long getLeaseDuration() {
+		return leaseDuration;
+	}
+
+	/**
+	 * Renew the leases of the handles with the given ids.
+	 * 
+	 * @param ids
+	 *            the ids
+	 */
+	public void renewLeases(int[] ids) {
+		if (leaseWheel == null)
+			return;
+		long expiry = currentTimeMillis() + leaseDuration;
+		for (int id : ids) {
+			ObjectHandle handle = handles.get(id);
+			if (handle != null)
+				handle.setLeaseExpiry(expiry);
+		}
+	}
+
+	/**
+	 * Remove the handles whose leases have ended.
+	 * 
+	 * @param now
+	 *            the current time
+	 * @return the number of handles removed
+	 */
+	public int expireLeases(long now) {
+		LeaseWheel wheel = leaseWheel;
+		if (wheel == null)
+			return 0;
+		int expired = 0;
+		for (ObjectHandle handle : wheel.advance(now)) {
+			if (handles.get(handle.getID()) != handle)
+				continue;
+			if (handle.getLeaseExpiry() > now) {
+				scheduleLease(handle);
+				continue;
+			}
+			if (handle.releaseAll()) {
+				log.debug("lease expired " + handle);
+				handles.remove(handle.getID(), handle);
+				objects.remove(new IdentityKey(handle.getObject()), handle);
+				expired++;
+			}
+		}
+		expiredHandles.addAndGet(expired);
+		return expired;
+	}
+
+	/**
+	 * Gets the current time for leases.
+	 * 
+	 * @return the current time in milliseconds
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Gets the number of handles removed because their leases ended.
+	 * 
+	 * @return the expired handle count
+	 */
+	public long getExpiredHandleCount() {
+		return expiredHandles.get();
+	}
+
+	/**
+	 * Find the method for a call by name. The method resolved for a class,
+	 * name and argument classes is cached, a repeated call only checks and
+	 * converts its arguments for the cached method.
+	 */
 	private Method findMethod(Object object, String methodName, Object[] args) {
 		Class<? extends Object> klass = object.getClass();
+		ClassMethods classMethods = getClassMethods(klass);
+		MethodKey key = new MethodKey(methodName, args);
+		Method cached = classMethods.methods.get(key);
+		if (cached != null && paramMatches(cached, args)) {
+			methodCacheHits.incrementAndGet();
+			return cached;
+		}
+		methodCacheMisses.incrementAndGet();
 		Method[] methods = klass.getMethods();
 		for (Method method : methods) {
 			if (methodName.equals(method.getName())
-					&& paramMatches(method, args))
+					&& paramMatches(method, args)) {
+				if (!Modifier.isPublic(method.getDeclaringClass()
+						.getModifiers())) {
+					try {
+						method.setAccessible(true);
+					} catch (SecurityException e) {
+					}
+				}
+				classMethods.methods.put(key, method);
 				return method;
+			}
 		}
 		return null;
 	}
 
+	/**
+	 * Gets the number of calls by name whose method was found in the method
+	 * cache.
+	 * 
+	 * @return the hit count
+	 */
+	public long getMethodCacheHits() {
+		return methodCacheHits.get();
+	}
+
+	/**
+	 * Gets the number of calls by name whose method was searched for.
+	 * 
+	 * @return the miss count
+	 */
+	public long getMethodCacheMisses() {
+		return methodCacheMisses.get();
+	}
+
+	/**
+	 * Check whether the target of a call by name has a method taking
+	 * arguments with the given tags. The answer is cached by the class, name
+	 * and tags, so that repeated calls are checked without searching the
+	 * methods of the class.
+	 */
+	private boolean hasMethod(Object object, String methodName, byte[] types) {
+		Class<? extends Object> klass = object.getClass();
+		ClassMethods classMethods = getClassMethods(klass);
+		MethodKey key = new MethodKey(methodName, types);
+		Boolean cached = classMethods.argumentChecks.get(key);
+		if (cached != null)
+			return cached.booleanValue();
+		boolean found = false;
+		for (Method method : klass.getMethods()) {
+			if (methodName.equals(method.getName())
+					&& typesMatch(method, types)) {
+				found = true;
+				break;
+			}
+		}
+		classMethods.argumentChecks.put(key, Boolean.valueOf(found));
+		return found;
+	}
+
+	/**
+	 * Gets the methods of a class resolved for calls by name.
+	 * 
+	 * @param klass
+	 *            the class of the target
+	 * @return the resolved methods
+	 */
+	private ClassMethods getClassMethods(Class<?> klass) {
+		SoftReference<ClassMethods> ref = methodCache.get(klass);
+		ClassMethods classMethods = ref == null ? null : ref.get();
+		if (classMethods == null) {
+			classMethods = new ClassMethods();
+			methodCache.put(klass, new SoftReference<ClassMethods>(
+					classMethods));
+		}
+		return classMethods;
+	}
+
+	private boolean typesMatch(Method method, byte[] types) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		if (parameterTypes.length != types.length)
+			return false;
+		for (int i = 0; i < types.length; i++)
+			if (!JMSLiteMessage.isAssignable(parameterTypes[i], types[i]))
+				return false;
+		return true;
+	}
+
 	private boolean paramMatches(Method method, Object[] params) {
 		Class<?>[] parameterTypes = method.getParameterTypes();
 		if (params != null && parameterTypes.length != params.length
 				|| params == null && parameterTypes.length != 0)
 			return false;
+		Object[] converted = null;
 		for (int i = 0; i < parameterTypes.length; i++) {
 			Class<?> class1 = parameterTypes[i];
 			if (!class1.isPrimitive() && params[i] == null)
 				continue;
 			if (params[i] instanceof ObjectHandle) {
 				params[i] = getObject(((ObjectHandle) params[i]));
+			} else if (class1.isArray() && params[i] instanceof Object[]) {
+				Object[] values = (Object[]) params[i];
+				for (int j = 0; j < values.length; j++)
+					if (values[j] instanceof ObjectHandle)
+						values[j] = getObject((ObjectHandle) values[j]);
 			}
 			if (class1.isPrimitive()) {
 				if (params[i] instanceof Boolean && class1 != Boolean.TYPE)
@@ -337,10 +890,80 @@ public class ObjectRepository {
 					return false;
 				if (params[i] instanceof Byte && class1 != Byte.TYPE)
 					return false;
-			} else if (!class1.isInstance(params[i]))
-				return false;
+				if (params[i] instanceof Character && class1 != Character.TYPE)
+					return false;
+				if (class1 == Character.TYPE
+						&& !(params[i] instanceof Character))
+					return false;
+			} else if (!class1.isInstance(params[i])) {
+				Object c = class1.isArray() ? convertArray(class1, params[i])
+						: convertCollection(class1, params[i]);
+				if (c == null)
+					return false;
+				if (converted == null)
+					converted = new Object[params.length];
+				converted[i] = c;
+			}
 		}
+		if (converted != null)
+			for (int i = 0; i < converted.length; i++)
+				if (converted[i] != null)
+					params[i] = converted[i];
 		return true;
 	}
 
+	/**
+	 * Converts a decoded collection or map to the type of a parameter.
+	 * 
+	 * Lists, sets and maps are decoded as ArrayList, LinkedHashSet and
+	 * LinkedHashMap which match parameters declared with the collection
+	 * interfaces. Parameters with sorted or concrete collection types get a
+	 * copy of the decoded value.
+	 * 
+	 * @param type
+	 *            the parameter type
+	 * @param value
+	 *            the decoded value
+	 * @return the converted value or null if the value can not be converted
+	 */
+	@SuppressWarnings("unchecked")
+	private Object convertCollection(Class<?> type, Object value) {
+		try {
+			if (value instanceof Collection<?>) {
+				Collection<Object> c;
+				if (type.isAssignableFrom(TreeSet.class))
+					c = new TreeSet<Object>();
+				else if (type.isAssignableFrom(LinkedList.class))
+					c = new LinkedList<Object>();
+				else if (Collection.class.isAssignableFrom(type)
+						&& !type.isInterface()
+						&& !Modifier.isAbstract(type.getModifiers()))
+					c = (Collection<Object>) type.getDeclaredConstructor()
+							.newInstance();
+				else
+					return null;
+				c.addAll((Collection<?>) value);
+				return c;
+			}
+			if (value instanceof Map<?, ?>) {
+				Map<Object, Object> m;
+				if (type.isAssignableFrom(TreeMap.class))
+					m = new TreeMap<Object, Object>();
+				else if (Map.class.isAssignableFrom(type)
+						&& !type.isInterface()
+						&& !Modifier.isAbstract(type.getModifiers()))
+					m = (Map<Object, Object>) type.getDeclaredConstructor()
+							.newInstance();
+				else
+					return null;
+				m.putAll((Map<?, ?>) value);
+				return m;
+			}
+		} catch (Exception e) {
+			log.debug("Could not convert " + value.getClass() + " to " + type,
+					e);
+		}
+		return null;
+	}
+
 }
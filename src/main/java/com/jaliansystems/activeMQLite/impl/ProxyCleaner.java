@@ -0,0 +1,174 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Releases the remote objects of proxies that have been garbage collected.
+ *
+ * Each proxy is tracked with a phantom reference. A daemon thread, started
+ * with the first tracked proxy, takes the collected proxies from the reference
+ * queue and sends a remove for their handles, so that the finalizer thread of
+ * the JVM is not held up. The proxies collected and not yet released are
+ * counted by {@link #getPendingCount()}. The thread ends with {@link #stop()}.
+ */
+public class ProxyCleaner {
+
+	private static final Log log = LogFactory.getLog(ProxyCleaner.class);
+
+	/**
+	 * A phantom reference to a proxy, with the handle to release.
+	 */
+	private static final class ProxyReference extends PhantomReference<Object> {
+		private final ObjectHandle handle;
+
+		public ProxyReference(Object proxy, ObjectHandle handle,
+				ReferenceQueue<Object> queue) {
+			super(proxy, queue);
+			this.handle = handle;
+		}
+	}
+
+	private final RepositoryClient client;
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+	/** Keeps the references reachable until they are enqueued. */
+	private final ConcurrentHashMap<ProxyReference, Boolean> references = new ConcurrentHashMap<ProxyReference, Boolean>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final String name;
+	private Thread thread;
+	private volatile boolean stopped;
+
+	/**
+	 * Instantiates a new proxy cleaner. The thread is started when the first
+	 * proxy is tracked.
+	 *
+	 * @param client
+	 *            the client that sends the removes
+	 * @param name
+	 *            the name of the thread
+	 */
+	public ProxyCleaner(RepositoryClient client, String name) {
+		this.client = client;
+		this.name = name;
+	}
+
+	/**
+	 * Release the handle when the proxy is garbage collected. Proxies tracked
+	 * after {@link #stop()} are not released.
+	 *
+	 * @param proxy
+	 *            the proxy
+	 * @param handle
+	 *            the handle of the remote object
+	 */
+	public void track(Object proxy, ObjectHandle handle) {
+		synchronized (this) {
+			if (stopped)
+				return;
+			if (thread == null) {
+				thread = new Thread(name) {
+					@Override
+					public void run() {
+						clean();
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+			references.put(new ProxyReference(proxy, handle, queue),
+					Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Stop the thread. The handles of proxies collected afterwards are not
+	 * released.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		if (thread != null)
+			thread.interrupt();
+		thread = null;
+		references.clear();
+	}
+
+	/**
+	 * Gets the number of tracked proxies that have not been collected.
+	 *
+	 * @return the tracked count
+	 */
+	public int getTrackedCount() {
+		return references.size() - pending.get();
+	}
+
+	/**
+	 * Gets the number of collected proxies whose handles are not released
+	 * yet.
+	 *
+	 * @return the pending count
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * Release the handle of a collected proxy.
+	 *
+	 * @param handle
+	 *            the handle
+	 * @throws Exception
+	 *             the exception
+	 */
+	protected void release(ObjectHandle handle) throws Exception {
+		client.remove(handle);
+	}
+
+	private void clean() {
+		List<ProxyReference> batch = new ArrayList<ProxyReference>();
+		while (!stopped) {
+			try {
+				batch.add((ProxyReference) queue.remove());
+				ProxyReference ref;
+				while ((ref = (ProxyReference) queue.poll()) != null)
+					batch.add(ref);
+			} catch (InterruptedException e) {
+				return;
+			}
+			pending.addAndGet(batch.size());
+			for (ProxyReference ref : batch) {
+				try {
+					release(ref.handle);
+				} catch (Exception e) {
+					log.warn("Could not release " + ref.handle, e);
+				} finally {
+					references.remove(ref);
+					pending.decrementAndGet();
+				}
+			}
+			batch.clear();
+		}
+	}
+}
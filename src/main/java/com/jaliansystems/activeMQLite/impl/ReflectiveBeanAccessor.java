@@ -0,0 +1,56 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+/**
+ * A BeanAccessor that uses Method.invoke on the getters and setters of the
+ * descriptor. Works for every bean and is used when a generated accessor is not
+ * requested or can not be created.
+ */
+public class ReflectiveBeanAccessor implements BeanAccessor {
+
+	private final BeanDescriptor descriptor;
+
+	/**
+	 * Instantiates a new reflective bean accessor.
+	 *
+	 * @param descriptor
+	 *            the bean descriptor
+	 */
+	public ReflectiveBeanAccessor(BeanDescriptor descriptor) {
+		this.descriptor = descriptor;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.jaliansystems.activeMQLite.impl.BeanAccessor#get(java.lang.Object,
+	 * int)
+	 */
+	public Object get(Object bean, int index) throws Exception {
+		return descriptor.getGetter(index).invoke(bean);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.jaliansystems.activeMQLite.impl.BeanAccessor#set(java.lang.Object,
+	 * int, java.lang.Object)
+	 */
+	public void set(Object bean, int index, Object value) throws Exception {
+		descriptor.getSetter(index).invoke(bean, value);
+	}
+}
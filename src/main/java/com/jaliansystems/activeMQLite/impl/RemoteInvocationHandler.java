@@ -26,7 +26,9 @@ import org.apache.commons.logging.LogFactory;
  * 
  * When a remote object is accessed a Proxy object is returned with an instance
  * of RemoteInvocationHandler. All the method invocations on the proxy instance
- * are seamlessly transferred to the remote connection.
+ * are seamlessly transferred to the remote connection. When the proxy is
+ * garbage collected the {@link ProxyCleaner} of the client sends a remove
+ * message to the remote connection.
  */
 public class RemoteInvocationHandler implements InvocationHandler, IProxy {
 
@@ -72,14 +74,4 @@ public class RemoteInvocationHandler implements InvocationHandler, IProxy {
 				+ "' on " + handle);
 		return client.invoke(handle, method, args);
 	}
-
-	/**
-	 * When the object instance goes out of scope, at sometime JVM GC's this
-	 * object. We send a remove message to the remote connection. 
-	 */
-	@Override
-	protected void finalize() throws Throwable {
-		client.remove(handle);
-		super.finalize();
-	}
 }
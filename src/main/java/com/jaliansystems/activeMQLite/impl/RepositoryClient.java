@@ -16,8 +16,13 @@
 package com.jaliansystems.activeMQLite.impl;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jms.Connection;
 import javax.jms.DeliveryMode;
@@ -56,17 +61,67 @@ public class RepositoryClient implements MessageListener {
 		public String message;
 	}
 
+	/**
+	 * The Class LookupResponse.
+	 */
+	private static class LookupResponse extends Response {
+		public Integer features;
+		public Long lease;
+	}
+
+	/**
+	 * The longest interval at which leases are checked for renewal, also the
+	 * delay after a failed renewal.
+	 */
+	private static final long RENEWAL_CHECK_INTERVAL = 1000;
+
 	private final static Log log = LogFactory.getLog(RepositoryClient.class);
 
-	private MessageProducer requestProducer;
+	private final MessageProducer requestProducer;
+	private final MessageProducer removeProducer;
 	private TemporaryQueue responseQueue;
 	private MessageConsumer responseConsumer;
 	private int correlationID = 0;
 	private Map<String, Queue> queues = new HashMap<String, Queue>();
 	private Map<Integer, Response> responseMap = new HashMap<Integer, Response>();
 	private final ObjectRepository objectRepository;
+	private final MessageContext context;
 	private Session session;
 
+	/** The handles of the live proxies, with the number of proxies. */
+	private final ConcurrentHashMap<ObjectHandle, AtomicInteger> remoteHandles = new ConcurrentHashMap<ObjectHandle, AtomicInteger>();
+
+	/** The lease durations of remote connections by their queue. */
+	private final ConcurrentHashMap<String, Long> peerLeases = new ConcurrentHashMap<String, Long>();
+
+	/** The time leases were last renewed, used only by renewLeases. */
+	private final Map<String, Long> lastRenewals = new HashMap<String, Long>();
+
+	private final ProxyCleaner proxyCleaner;
+
+	private LeaseTimer leaseTimer;
+
+	/** The next renewal, null while no leased handles are held. */
+	private ScheduledFuture<?> nextRenewal;
+	private final Runnable renewal = new Runnable() {
+		public void run() {
+			long delay;
+			try {
+				delay = renewLeases(System.currentTimeMillis());
+			} catch (Exception e) {
+				log.warn("Renewing leases failed", e);
+				delay = RENEWAL_CHECK_INTERVAL;
+			}
+			synchronized (renewal) {
+				if (delay < 0 && !hasLeasedHandles()) {
+					nextRenewal = null;
+					return;
+				}
+				scheduleRenewal(Math.max(0, delay));
+			}
+		}
+	};
+
 	/**
 	 * Instantiates a new repository client.
 	 * 
@@ -76,12 +131,16 @@ public class RepositoryClient implements MessageListener {
 	 *            the broker url
 	 * @param objectRepository
 	 *            the object repository
+	 * @param context
+	 *            the message context
 	 * @throws Exception
 	 *             the exception
 	 */
 	public RepositoryClient(Connection connection, String brokerURL,
-			ObjectRepository objectRepository) throws Exception {
+			ObjectRepository objectRepository, MessageContext context)
+			throws Exception {
 		this.objectRepository = objectRepository;
+		this.context = context;
 
 		session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
 
@@ -91,6 +150,14 @@ public class RepositoryClient implements MessageListener {
 		responseQueue = session.createTemporaryQueue();
 		responseConsumer = session.createConsumer(responseQueue);
 		responseConsumer.setMessageListener(this);
+
+		Session removeSession = connection.createSession(false,
+				Session.AUTO_ACKNOWLEDGE);
+		removeProducer = removeSession.createProducer(null);
+		removeProducer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+
+		proxyCleaner = new ProxyCleaner(this, objectRepository.getQueueName()
+				+ "-proxy-cleaner");
 	}
 
 	/**
@@ -108,7 +175,7 @@ public class RepositoryClient implements MessageListener {
 	 */
 	public Object invoke(ObjectHandle handle, Method method, Object[] args)
 			throws Exception {
-		JMSLiteMessage message = new JMSLiteMessage();
+		JMSLiteMessage message = createRequest(handle.getQueueName());
 		message.write(RepositoryService.MESSAGE_CALL);
 		objectRepository.encodeMethodCall(message, handle, method, args);
 		message.setJMSReplyTo(responseQueue);
@@ -119,10 +186,9 @@ public class RepositoryClient implements MessageListener {
 		message.setJMSCorrelationID(cID + "");
 		CallResponse response = new CallResponse();
 		responseMap.put(cID, response);
-		Queue queue = findQueue(handle.getQueueName());
 
 		synchronized (response) {
-			requestProducer.send(queue, message);
+			send(handle.getQueueName(), message);
 			response.wait();
 		}
 		responseMap.remove(cID);
@@ -130,9 +196,12 @@ public class RepositoryClient implements MessageListener {
 			throw new Exception("RemoteError: " + response.exception + ":"
 					+ response.message);
 		} else {
-			Object r = response.response;
-			if (r instanceof ObjectHandle) {
-				return objectRepository.lookupHandle((ObjectHandle) r, this);
+			Object r = objectRepository.lookupHandles(response.response, this);
+			Class<?> rtype = method.getReturnType();
+			if (rtype.isArray() && r != null && !rtype.isInstance(r)) {
+				Object converted = ObjectRepository.convertArray(rtype, r);
+				if (converted != null)
+					return converted;
 			}
 			return r;
 		}
@@ -141,6 +210,14 @@ public class RepositoryClient implements MessageListener {
 	/**
 	 * Lookup a published remote object.
 	 * 
+	 * The lookup is sent uncompressed with the plain encoding and carries the
+	 * format version and the features this connection can decode. The remote
+	 * connection replies with its own, and later requests to it use only the
+	 * features both sides support. Both sides also send the lease of their
+	 * handles, see {@link #renewLeases(long)}. A remote connection of an
+	 * older version ignores the additional values and does not send its
+	 * features, so requests to it use the plain encoding.
+	 * 
 	 * @param <T>
 	 *            the generic type
 	 * @param id
@@ -152,24 +229,34 @@ public class RepositoryClient implements MessageListener {
 	 *             the exception
 	 */
 	public <T> T lookup(String id, Class<?> iface) throws Exception {
-		JMSLiteMessage message = new JMSLiteMessage();
+		JMSLiteMessage message = new JMSLiteMessage(context, 0);
+		message.setCompressible(false);
+		message.setAccepts(JMSLiteMessage.SUPPORTED_FEATURES);
 		message.write(RepositoryService.MESSAGE_LOOKUP);
 		message.write(iface.getName());
+		message.write(JMSLiteMessage.FORMAT_VERSION);
+		message.write(JMSLiteMessage.SUPPORTED_FEATURES);
+		message.write(objectRepository.getQueueName());
+		message.write(objectRepository.getLeaseDuration());
 		message.setJMSReplyTo(responseQueue);
 		int cID;
 		synchronized (this) {
 			cID = ++correlationID;
 		}
 		message.setJMSCorrelationID(cID + "");
-		Response response = new Response();
+		LookupResponse response = new LookupResponse();
 		responseMap.put(cID, response);
 
-		Queue queue = findQueue(id + "-request");
+		String queueName = id + "-request";
 		synchronized (response) {
-			requestProducer.send(queue, message);
+			send(queueName, message);
 			response.wait();
 		}
 		responseMap.remove(cID);
+		context.setPeerFeatures(queueName, response.features == null ? 0
+				: response.features.intValue());
+		if (response.lease != null)
+			setPeerLease(queueName, response.lease.longValue());
 		return (T) response.response;
 	}
 
@@ -179,7 +266,7 @@ public class RepositoryClient implements MessageListener {
 	public void onMessage(Message m) {
 		try {
 			JMSLiteMessage message = new JMSLiteMessage(
-					(ActiveMQBytesMessage) m);
+					(ActiveMQBytesMessage) m, context);
 			byte type = (Byte) message.read();
 			if (type == RepositoryService.MESSAGE_LOOKUP) {
 				handleLookupResponse(message);
@@ -193,35 +280,236 @@ public class RepositoryClient implements MessageListener {
 		}
 	}
 
+	/**
+	 * Track a proxy created for a remote handle. The lease of the handle is
+	 * renewed while the proxy is alive and the handle is removed when the
+	 * proxy is garbage collected.
+	 * 
+	 * @param proxy
+	 *            the proxy
+	 * @param handle
+	 *            the handle
+	 */
+	public void trackProxy(Object proxy, ObjectHandle handle) {
+		addRemoteHandle(handle);
+		proxyCleaner.track(proxy, handle);
+	}
+
+	/**
+	 * Gets the number of garbage collected proxies whose handles are not yet
+	 * removed.
+	 * 
+	 * @return the pending release count
+	 */
+	public int getPendingReleaseCount() {
+		return proxyCleaner.getPendingCount();
+	}
+
+	private void addRemoteHandle(ObjectHandle handle) {
+		while (true) {
+			AtomicInteger count = remoteHandles.get(handle);
+			if (count == null) {
+				if (remoteHandles.putIfAbsent(handle, new AtomicInteger(1)) == null) {
+					if (peerLeases.containsKey(handle.getQueueName()))
+						startRenewal();
+					return;
+				}
+				continue;
+			}
+			int n = count.get();
+			if (n > 0 && count.compareAndSet(n, n + 1))
+				return;
+			if (n <= 0)
+				remoteHandles.remove(handle, count);
+		}
+	}
+
+	/**
+	 * Remember the lease duration of a remote connection, as exchanged when
+	 * an object is looked up.
+	 * 
+	 * @param queueName
+	 *            the queue of the remote connection
+	 * @param lease
+	 *            the lease duration in milliseconds, 0 if the remote
+	 *            connection does not lease its handles
+	 */
+	public void setPeerLease(String queueName, long lease) {
+		if (lease > 0) {
+			Long previous = peerLeases.put(queueName, lease);
+			if (previous == null || previous.longValue() > lease) {
+				synchronized (renewal) {
+					if (hasLeasedHandles())
+						scheduleRenewal(0);
+				}
+			}
+		} else
+			peerLeases.remove(queueName);
+	}
+
+	/**
+	 * Renew leases with the given timer, see {@link #renewLeases(long)}.
+	 * Renewals are scheduled only while handles of remote connections that
+	 * lease them are held.
+	 * 
+	 * @param timer
+	 *            the timer
+	 */
+	public void setLeaseTimer(LeaseTimer timer) {
+		synchronized (renewal) {
+			leaseTimer = timer;
+		}
+		startRenewal();
+	}
+
+	/**
+	 * Stop renewing leases and releasing collected proxies. The timer itself
+	 * is shut down by its owner.
+	 */
+	public void close() {
+		proxyCleaner.stop();
+		synchronized (renewal) {
+			if (nextRenewal != null)
+				nextRenewal.cancel(false);
+			nextRenewal = null;
+			leaseTimer = null;
+		}
+	}
+
+	/**
+	 * Checks whether renewals are scheduled.
+	 * 
+	 * @return true, if leases are being renewed
+	 */
+	public boolean isRenewingLeases() {
+		synchronized (renewal) {
+			return nextRenewal != null;
+		}
+	}
+
+	private void startRenewal() {
+		synchronized (renewal) {
+			if (nextRenewal == null && hasLeasedHandles())
+				scheduleRenewal(0);
+		}
+	}
+
+	private void scheduleRenewal(long delay) {
+		synchronized (renewal) {
+			if (leaseTimer == null)
+				return;
+			if (nextRenewal != null)
+				nextRenewal.cancel(false);
+			nextRenewal = leaseTimer.schedule(renewal, delay);
+		}
+	}
+
+	private boolean hasLeasedHandles() {
+		if (peerLeases.isEmpty())
+			return false;
+		for (ObjectHandle handle : remoteHandles.keySet())
+			if (peerLeases.containsKey(handle.getQueueName()))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Renew the leases of the handles of live proxies.
+	 * 
+	 * The handles of a remote connection are renewed in one message every
+	 * third of its lease duration. A remote connection to which the renewal
+	 * can not be sent is no longer renewed. This is called by a single timer
+	 * thread.
+	 * 
+	 * @param now
+	 *            the current time
+	 * @return the delay in milliseconds after which this should be called
+	 *         again or -1 if no leased handles are held
+	 * @throws Exception
+	 *             the exception
+	 */
+	public long renewLeases(long now) throws Exception {
+		long delay = RENEWAL_CHECK_INTERVAL;
+		if (peerLeases.isEmpty())
+			return -1;
+		boolean leased = false;
+		Map<String, List<Integer>> ids = new HashMap<String, List<Integer>>();
+		for (ObjectHandle handle : remoteHandles.keySet()) {
+			String queueName = handle.getQueueName();
+			Long lease = peerLeases.get(queueName);
+			if (lease == null)
+				continue;
+			leased = true;
+			Long last = lastRenewals.get(queueName);
+			if (last != null && now - last.longValue() < lease.longValue() / 3)
+				continue;
+			List<Integer> list = ids.get(queueName);
+			if (list == null) {
+				list = new ArrayList<Integer>();
+				ids.put(queueName, list);
+			}
+			list.add(handle.getID());
+		}
+		for (Map.Entry<String, List<Integer>> entry : ids.entrySet()) {
+			List<Integer> list = entry.getValue();
+			int[] batch = new int[list.size()];
+			for (int i = 0; i < batch.length; i++)
+				batch[i] = list.get(i);
+			JMSLiteMessage message = createRequest(entry.getKey());
+			message.write(RepositoryService.MESSAGE_RENEW);
+			message.write(batch);
+			try {
+				send(entry.getKey(), message);
+				lastRenewals.put(entry.getKey(), now);
+			} catch (JMSException e) {
+				log.warn("Could not renew leases on " + entry.getKey()
+						+ ", no longer renewing", e);
+				peerLeases.remove(entry.getKey());
+			}
+		}
+		if (!leased)
+			return -1;
+		for (Long lease : peerLeases.values())
+			delay = Math.min(delay, Math.max(1, lease.longValue() / 3));
+		return delay;
+	}
+
 	/**
 	 * Remove a remote object mapping.
 	 * 
+	 * The remove is sent on a session of its own without waiting for a reply,
+	 * so that releasing proxies does not block on the remote connection. A
+	 * remote connection of this version does not answer it. An older one
+	 * gets a reply destination, and a failed remove is logged when its reply
+	 * arrives.
+	 * 
 	 * @param handle
 	 *            the handle
 	 * @throws Exception
 	 *             the exception
 	 */
 	public void remove(ObjectHandle handle) throws Exception {
-		JMSLiteMessage message = new JMSLiteMessage();
+		AtomicInteger count = remoteHandles.get(handle);
+		if (count != null && count.decrementAndGet() <= 0)
+			remoteHandles.remove(handle, count);
+		JMSLiteMessage message = createRequest(handle.getQueueName());
 		message.write(RepositoryService.MESSAGE_REMOVE);
 		message.write(handle);
-		message.setJMSReplyTo(responseQueue);
-		int cID;
-		synchronized (this) {
-			cID = ++correlationID;
+		if (!context.isOneWayRemoveSupported(handle.getQueueName())) {
+			message.setJMSReplyTo(responseQueue);
+			int cID;
+			synchronized (this) {
+				cID = ++correlationID;
+			}
+			message.setJMSCorrelationID(cID + "");
 		}
-		message.setJMSCorrelationID(cID + "");
-		Response response = new Response();
-		responseMap.put(cID, response);
-
-		Queue queue = findQueue(handle.getQueueName());
-		synchronized (response) {
-			requestProducer.send(queue, message);
-			response.wait();
+		ActiveMQBytesMessage jmsMessage = message.toJMSMessage();
+		Queue queue;
+		synchronized (requestProducer) {
+			queue = findQueue(handle.getQueueName());
 		}
-		responseMap.remove(cID);
-		if (!(Boolean) response.response) {
-			log.warn("RepositoryClient.remove(): failed");
+		synchronized (removeProducer) {
+			removeProducer.send(queue, jmsMessage);
 		}
 	}
 
@@ -230,6 +518,47 @@ public class RepositoryClient implements MessageListener {
 		return (T) object;
 	}
 
+	/**
+	 * Create a request to the given queue, encoded with the features
+	 * negotiated with the remote connection. The request tells the features
+	 * this connection can decode, for the response.
+	 * 
+	 * @param queueName
+	 *            the queue name
+	 * @return the message
+	 */
+	private JMSLiteMessage createRequest(String queueName) {
+		JMSLiteMessage message = new JMSLiteMessage(context, context
+				.getFeatures(queueName));
+		message.setCompressible(context.isCompressionSupported(queueName));
+		message.setLongStrings(context.isLongStringSupported(queueName));
+		message.setAccepts(JMSLiteMessage.SUPPORTED_FEATURES);
+		return message;
+	}
+
+	/**
+	 * Send a request. The session of the client is shared by the calling
+	 * threads and the lease timer, so the sends and the queues created for
+	 * them are guarded by the producer.
+	 * 
+	 * @param queueName
+	 *            the queue name
+	 * @param message
+	 *            the message
+	 * @throws JMSException
+	 *             the JMS exception
+	 */
+	private void send(String queueName, JMSLiteMessage message)
+			throws JMSException {
+		ActiveMQBytesMessage jmsMessage = message.toJMSMessage();
+		synchronized (requestProducer) {
+			requestProducer.send(findQueue(queueName), jmsMessage);
+		}
+	}
+
+	/**
+	 * Find the queue with the given name. Called while holding the producer.
+	 */
 	private Queue findQueue(String queueName) throws JMSException {
 		Queue queue = queues.get(queueName);
 		if (queue != null)
@@ -266,22 +595,30 @@ public class RepositoryClient implements MessageListener {
 
 	private void handleLookupResponse(JMSLiteMessage message) throws Exception {
 		ObjectHandle handle = (ObjectHandle) message.read();
+		Integer features = null;
+		Long lease = null;
+		if (message.hasRemaining()) {
+			int version = (Integer) message.read();
+			if (version >= 1)
+				features = (Integer) message.read();
+			if (message.hasRemaining())
+				lease = (Long) message.read();
+		}
 		int cID = Integer.parseInt(message.getJMSCorrelationID());
-		Response r = responseMap.get(cID);
+		LookupResponse r = (LookupResponse) responseMap.get(cID);
 		synchronized (r) {
+			r.features = features;
+			r.lease = lease;
 			r.response = objectRepository.lookupHandle(handle, this);
 			r.notify();
 		}
 	}
 
 	private void handleMessageRemoveResponse(JMSLiteMessage message) throws Exception {
-		int cID = Integer.parseInt(message.getJMSCorrelationID());
-		Response r = responseMap.get(cID);
 		boolean b = (Boolean) message.read();
-		synchronized (r) {
-			r.response = b;
-			r.notify();
-		}
+		if (!b)
+			log.warn("RepositoryClient.remove(): failed for request "
+					+ message.getJMSCorrelationID());
 	}
 
 }
@@ -53,11 +53,16 @@ public class RepositoryService implements MessageListener {
 	 */
 	public static final byte MESSAGE_CALL = 2;
 	/**
-	 * Remove Message
+	 * Remove Message, answered only when it has a reply destination.
 	 */
 	public static final byte MESSAGE_REMOVE = 3;
+	/**
+	 * Lease renewal Message, carries the ids of handles. It has no response.
+	 */
+	public static final byte MESSAGE_RENEW = 4;
 
 	private final ObjectRepository objectRepository;
+	private final MessageContext context;
 	private Session sessionService;
 	private MessageProducer responseProducer;
 	
@@ -75,13 +80,15 @@ public class RepositoryService implements MessageListener {
 	 * @param queueNamePrefix the queue name prefix
 	 * @param objectRepository the object repository
 	 * @param client the client
+	 * @param context the message context
 	 * @throws Exception the exception
 	 */
 	public RepositoryService(Connection connection, String brokerURL, String queueNamePrefix,
-			ObjectRepository objectRepository, RepositoryClient client)
-			throws Exception {
+			ObjectRepository objectRepository, RepositoryClient client,
+			MessageContext context) throws Exception {
 		this.objectRepository = objectRepository;
 		this.client = client;
+		this.context = context;
 
 		sessionService = connection.createSession(false,
 				Session.AUTO_ACKNOWLEDGE);
@@ -113,14 +120,14 @@ public class RepositoryService implements MessageListener {
 		if (message instanceof ActiveMQBytesMessage) {
 			try {
 				JMSLiteMessage jmsMessage = new JMSLiteMessage(
-						(ActiveMQBytesMessage) message);
+						(ActiveMQBytesMessage) message, context);
 				byte message_type = (Byte) jmsMessage.read();
 				if (message_type == MESSAGE_LOOKUP) {
 					String className = (String) jmsMessage.read();
-					handleLookup(className, message.getJMSReplyTo(), message
-							.getJMSCorrelationID());
+					handleLookup(className, jmsMessage, message.getJMSReplyTo(),
+							message.getJMSCorrelationID());
 				} else if (message_type == MESSAGE_CALL) {
-					JMSLiteMessage rmessage = new JMSLiteMessage();
+					JMSLiteMessage rmessage = createResponse(jmsMessage);
 					rmessage.write(MESSAGE_CALL);
 					try {
 						Object returnVal = objectRepository.invoke(jmsMessage,
@@ -136,16 +143,23 @@ public class RepositoryService implements MessageListener {
 					}
 					rmessage.setJMSCorrelationID(message.getJMSCorrelationID());
 					rmessage.setJMSDestination(message.getJMSReplyTo());
-					responseProducer.send(message.getJMSReplyTo(), rmessage);
+					responseProducer.send(message.getJMSReplyTo(), rmessage
+							.toJMSMessage());
 				} else if (message_type == MESSAGE_REMOVE) {
 					ObjectHandle handle = (ObjectHandle) jmsMessage.read();
 					boolean b = objectRepository.removeObject(handle);
-					JMSLiteMessage rmessage = new JMSLiteMessage();
-					rmessage.write(MESSAGE_REMOVE);
-					rmessage.write(b);
-					rmessage.setJMSCorrelationID(message.getJMSCorrelationID());
-					rmessage.setJMSDestination(message.getJMSReplyTo());
-					responseProducer.send(message.getJMSReplyTo(), rmessage);
+					if (message.getJMSReplyTo() != null) {
+						JMSLiteMessage rmessage = createResponse(jmsMessage);
+						rmessage.write(MESSAGE_REMOVE);
+						rmessage.write(b);
+						rmessage.setJMSCorrelationID(message
+								.getJMSCorrelationID());
+						rmessage.setJMSDestination(message.getJMSReplyTo());
+						responseProducer.send(message.getJMSReplyTo(),
+								rmessage.toJMSMessage());
+					}
+				} else if (message_type == MESSAGE_RENEW) {
+					objectRepository.renewLeases((int[]) jmsMessage.read());
 				}
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -164,22 +178,62 @@ public class RepositoryService implements MessageListener {
 	}
 
 	/**
-	 * Handle lookup.
+	 * Handle lookup. A lookup from a connection of this version carries the
+	 * format version, the features the client can decode, the queue of the
+	 * client and the lease of its handles. They are remembered by the queue
+	 * of the client for calls to its objects, and the response carries the
+	 * version, the features and the lease of this connection.
 	 *
 	 * @param className the class name
+	 * @param request the request message
 	 * @param dest the dest
 	 * @param cID the c id
 	 * @throws Exception the exception
 	 */
-	private void handleLookup(String className, Destination dest, String cID)
-			throws Exception {
-		Class<?> iface = Class.forName(className);
+	private void handleLookup(String className, JMSLiteMessage request,
+			Destination dest, String cID) throws Exception {
+		Class<?> iface = context.getClassResolver().resolve(className);
+		if (request.hasRemaining()) {
+			int version = (Integer) request.read();
+			if (version >= 1) {
+				int supported = (Integer) request.read();
+				String clientQueue = (String) request.read();
+				context.setPeerFeatures(clientQueue, supported);
+				if (request.hasRemaining())
+					client.setPeerLease(clientQueue, (Long) request.read());
+			}
+		}
 		ObjectHandle handle = objectRepository.lookup(iface);
-		JMSLiteMessage message = new JMSLiteMessage();
+		JMSLiteMessage message = createResponse(request);
 		message.setJMSCorrelationID(cID);
 		message.setJMSDestination(dest);
 		message.write(MESSAGE_LOOKUP);
 		message.write(handle);
-		responseProducer.send(dest, message);
+		message.write(JMSLiteMessage.FORMAT_VERSION);
+		message.write(JMSLiteMessage.SUPPORTED_FEATURES);
+		message.write(objectRepository.getLeaseDuration());
+		responseProducer.send(dest, message.toJMSMessage());
+	}
+
+	/**
+	 * Create a response message. The response uses the features of the
+	 * request that are also enabled on this connection, so that a client
+	 * can always read the response. It is compressed and carries strings
+	 * longer than 64K only if the request tells that the client can decode
+	 * them, see {@link JMSLiteMessage#ACCEPTS_PROPERTY}.
+	 *
+	 * @param request the request
+	 * @return the response message
+	 */
+	private JMSLiteMessage createResponse(JMSLiteMessage request) {
+		JMSLiteMessage response = new JMSLiteMessage(context, request
+				.getFeatures()
+				& context.getFeatures());
+		int accepts = request.getAccepts();
+		response
+				.setCompressible((accepts & JMSLiteMessage.FLAG_COMPRESSED) != 0);
+		response
+				.setLongStrings((accepts & JMSLiteMessage.FLAG_LONG_STRINGS) != 0);
+		return response;
 	}
 }
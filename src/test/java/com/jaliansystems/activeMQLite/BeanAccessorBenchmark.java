@@ -0,0 +1,97 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import com.jaliansystems.activeMQLite.ClientServerParamTypeTest.BeanServer;
+import com.jaliansystems.activeMQLite.impl.BeanAccessor;
+import com.jaliansystems.activeMQLite.impl.BeanDescriptor;
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessage;
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessageTest.JavaBean;
+import com.jaliansystems.activeMQLite.impl.MessageContext;
+
+/**
+ * Compares reflective and generated bean accessors by encoding and decoding
+ * the beans used in ClientServerParamTypeTest.
+ *
+ * Not a unit test. Run the main method with the test classpath.
+ */
+public class BeanAccessorBenchmark {
+
+	private static final int BEANS = 1000;
+	private static final int ROUNDS = 200;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Object[] beans = new Object[BEANS];
+		for (int i = 0; i < BEANS; i++) {
+			if (i % 2 == 0) {
+				BeanServer bean = new BeanServer();
+				bean.setSomeField("field " + i);
+				beans[i] = bean;
+			} else
+				beans[i] = new JavaBean("name " + i, i, i % 3 == 0);
+		}
+		for (int pass = 0; pass < 3; pass++) {
+			report("reflection", run(beans, false));
+			report("generated ", run(beans, true));
+			report("reflection accessor only", access(beans, false));
+			report("generated accessor only ", access(beans, true));
+		}
+	}
+
+	private static long access(Object[] beans, boolean generated)
+			throws Exception {
+		BeanDescriptor descriptor = BeanDescriptor.forClass(JavaBean.class);
+		BeanAccessor accessor = descriptor.getAccessor(generated);
+		int n = descriptor.getGetterCount();
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			for (int j = 1; j < beans.length; j += 2) {
+				for (int k = 0; k < n; k++) {
+					int index = descriptor.indexOf(descriptor.getName(k));
+					accessor.set(beans[j], index, accessor.get(beans[j], k));
+				}
+			}
+		}
+		return (System.nanoTime() - start) * 2;
+	}
+
+	private static long run(Object[] beans, boolean generated)
+			throws Exception {
+		MessageContext context = new MessageContext();
+		context.setUseGeneratedAccessors(generated);
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			JMSLiteMessage message = new JMSLiteMessage(context);
+			message.write(beans);
+			message.makeReadable();
+			message.read();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void report(String name, long nanos) {
+		System.out.println(name + ": " + nanos / ((long) ROUNDS * BEANS)
+				+ " ns per bean round trip");
+	}
+}
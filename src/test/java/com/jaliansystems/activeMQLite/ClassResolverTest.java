@@ -0,0 +1,113 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessageTest.JavaBean;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ClassResolverTest.
+ */
+public class ClassResolverTest {
+
+	/**
+	 * A class loader that records the names it is asked for.
+	 */
+	private static class RecordingClassLoader extends ClassLoader {
+
+		/** The names. */
+		private final List<String> names = new ArrayList<String>();
+
+		/**
+		 * Instantiates a new recording class loader.
+		 */
+		public RecordingClassLoader() {
+			super(ClassResolverTest.class.getClassLoader());
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.ClassLoader#loadClass(java.lang.String, boolean)
+		 */
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve)
+				throws ClassNotFoundException {
+			names.add(name);
+			return super.loadClass(name, resolve);
+		}
+	}
+
+	/**
+	 * Caches resolved classes.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void cachesResolvedClasses() throws Exception {
+		ClassResolver resolver = new ClassResolver();
+		for (int i = 0; i < 10; i++)
+			assertSame(JavaBean.class, resolver.resolve(JavaBean.class
+					.getName()));
+		assertSame(Runnable.class, resolver.resolve("java.lang.Runnable"));
+		assertEquals(2, resolver.getMissCount());
+		assertEquals(2, resolver.getCachedCount());
+	}
+
+	/**
+	 * Uses the class loader set on the resolver.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void usesTheGivenClassLoader() throws Exception {
+		ClassResolver resolver = new ClassResolver();
+		resolver.resolve("java.lang.Runnable");
+		RecordingClassLoader loader = new RecordingClassLoader();
+		resolver.setClassLoader(loader);
+		assertEquals(0, resolver.getCachedCount());
+
+		resolver.resolve("java.lang.Runnable");
+		resolver.resolve("java.lang.Runnable");
+		assertEquals(1, loader.names.size());
+		assertEquals("java.lang.Runnable", loader.names.get(0));
+		assertEquals(2, resolver.getMissCount());
+	}
+
+	/**
+	 * Counts unknown classes as misses.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void countsUnknownClassesAsMisses() throws Exception {
+		ClassResolver resolver = new ClassResolver();
+		for (int i = 0; i < 2; i++) {
+			try {
+				resolver.resolve("com.example.Missing");
+			} catch (ClassNotFoundException e) {
+			}
+		}
+		assertEquals(2, resolver.getMissCount());
+		assertEquals(0, resolver.getCachedCount());
+	}
+}
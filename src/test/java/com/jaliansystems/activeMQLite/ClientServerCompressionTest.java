@@ -0,0 +1,231 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.activemq.broker.Broker;
+import org.apache.activemq.broker.BrokerFilter;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ProducerBrokerExchange;
+import org.apache.activemq.command.Message;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.jaliansystems.activeMQLite.ClientServerNParamTest.ClientServerReturnTest;
+import com.jaliansystems.activeMQLite.ClientServerNParamTest.IClientServerNParamTest;
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessage;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ClientServerCompressionTest. Calls between connections that
+ * compress message bodies above a threshold.
+ */
+public class ClientServerCompressionTest {
+
+	/** The broker URL. */
+	private static final String BROKER_URL = "tcp://localhost:61122";
+
+	/** The compression threshold of both connections. */
+	private static final int THRESHOLD = 4096;
+
+	/**
+	 * A message as seen by the broker: the destination, the features told by
+	 * the sender and the length of the body.
+	 */
+	private static class WireMessage {
+		private final boolean request;
+		private final int features;
+		private final int length;
+
+		public WireMessage(Message message) throws Exception {
+			request = "server-request".equals(message.getDestination()
+					.getPhysicalName());
+			Object f = message.getProperty(JMSLiteMessage.FEATURES_PROPERTY);
+			features = f == null ? 0 : ((Integer) f).intValue();
+			length = message.getContent() == null ? 0 : message.getContent()
+					.getLength();
+		}
+
+		public boolean isCompressed() {
+			return (features & JMSLiteMessage.FLAG_COMPRESSED) != 0;
+		}
+	}
+
+	/** The messages sent through the broker. */
+	private static final List<WireMessage> wire = new ArrayList<WireMessage>();
+
+	/** The instance. */
+	private static IClientServerNParamTest instance;
+
+	/** The server. */
+	private static JMSConnection server;
+
+	/** The broker service. */
+	private static BrokerService brokerService;
+
+	/**
+	 * Sets the up class.
+	 *
+	 * @throws Exception the exception
+	 */
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		brokerService = new BrokerService();
+		brokerService.setPersistent(false);
+		brokerService.setUseJmx(false);
+		brokerService.addConnector(BROKER_URL);
+		brokerService.setPlugins(new BrokerPlugin[] { new BrokerPlugin() {
+			public Broker installPlugin(Broker broker) throws Exception {
+				return new BrokerFilter(broker) {
+					@Override
+					public void send(ProducerBrokerExchange exchange,
+							Message message) throws Exception {
+						synchronized (wire) {
+							wire.add(new WireMessage(message));
+						}
+						super.send(exchange, message);
+					}
+				};
+			}
+		} });
+		brokerService.start();
+		brokerService.waitUntilStarted();
+		server = new JMSConnection("server", BROKER_URL);
+		server.setCompressionThreshold(THRESHOLD);
+		server.publish(new ClientServerReturnTest(),
+				IClientServerNParamTest.class);
+		JMSConnection client = new JMSConnection("client", BROKER_URL);
+		client.setCompressionThreshold(THRESHOLD);
+		instance = client.lookup("server", IClientServerNParamTest.class);
+	}
+
+	/**
+	 * Teardown class.
+	 *
+	 * @throws Exception the exception
+	 */
+	@AfterClass
+	public static void teardownClass() throws Exception {
+		JMSConnection.stopBrokerService(brokerService);
+	}
+
+	/**
+	 * Forget the messages sent by earlier tests.
+	 */
+	@Before
+	public void clearWire() {
+		synchronized (wire) {
+			wire.clear();
+		}
+	}
+
+	/**
+	 * Gets the requests or the responses sent through the broker.
+	 *
+	 * @param requests
+	 *            true for the requests, false for the responses
+	 * @return the messages
+	 */
+	private static List<WireMessage> sent(boolean requests) {
+		List<WireMessage> messages = new ArrayList<WireMessage>();
+		synchronized (wire) {
+			for (WireMessage message : wire)
+				if (message.request == requests)
+					messages.add(message);
+		}
+		return messages;
+	}
+
+	/**
+	 * Can establish a connection.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void canEstablishAConnection() throws Exception {
+		assertNotNull(instance);
+	}
+
+	/**
+	 * Passes small parameters uncompressed.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void passesSmallParameters() throws Exception {
+		assertEquals("methodWithThreeParams:First:Second:Third", instance
+				.methodWithThreeParams("First", "Second", "Third"));
+		List<WireMessage> requests = sent(true);
+		List<WireMessage> responses = sent(false);
+		assertFalse(requests.isEmpty());
+		assertFalse(responses.isEmpty());
+		for (WireMessage message : requests) {
+			assertFalse(message.isCompressed());
+			assertTrue(message.length < THRESHOLD);
+		}
+		for (WireMessage message : responses)
+			assertFalse(message.isCompressed());
+	}
+
+	/**
+	 * Passes parameters and return values above the threshold.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void passesLargeParameters() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 100000)
+			sb.append("Compressed Param \u0b85 ").append(sb.length());
+		String p = sb.toString();
+		assertEquals("methodWithOneParams:" + p, instance
+				.methodWithOneParams(p));
+		assertCompressed(sent(true), p.length());
+		assertCompressed(sent(false), p.length());
+		clearWire();
+		assertEquals("methodWithThreeParams:" + p + ":" + p + ":" + p,
+				instance.methodWithThreeParams(p, p, p));
+		assertCompressed(sent(true), 3 * p.length());
+		assertCompressed(sent(false), 3 * p.length());
+	}
+
+	/**
+	 * Asserts that a message carrying the payload was compressed on the wire.
+	 *
+	 * @param messages
+	 *            the messages sent
+	 * @param payload
+	 *            the length of the payload
+	 */
+	private static void assertCompressed(List<WireMessage> messages,
+			int payload) {
+		for (WireMessage message : messages)
+			if (message.isCompressed() && message.length < payload)
+				return;
+		fail("No compressed message shorter than " + payload);
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.jaliansystems.activeMQLite.ClientServerNParamTest.ClientServerReturnTest;
+import com.jaliansystems.activeMQLite.ClientServerNParamTest.IClientServerNParamTest;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ClientServerLazyArgumentsTest. Calls from a client that writes the
+ * tags of the arguments before the arguments.
+ */
+public class ClientServerLazyArgumentsTest {
+
+	/** The instance. */
+	private static IClientServerNParamTest instance;
+
+	/** The server. */
+	private static JMSConnection server;
+
+	/** The broker service. */
+	private static BrokerService brokerService;
+
+	/**
+	 * Sets the up class.
+	 *
+	 * @throws Exception the exception
+	 */
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		brokerService = JMSConnection.startBrokerService(61123);
+		server = new JMSConnection("server", "tcp://localhost:61123");
+		server.publish(new ClientServerReturnTest(),
+				IClientServerNParamTest.class);
+		JMSConnection client = new JMSConnection("client", "tcp://localhost:61123");
+		client.setUseLazyArguments(true);
+		instance = client.lookup("server", IClientServerNParamTest.class);
+	}
+
+	/**
+	 * Teardown class.
+	 *
+	 * @throws Exception the exception
+	 */
+	@AfterClass
+	public static void teardownClass() throws Exception {
+		JMSConnection.stopBrokerService(brokerService);
+	}
+
+	/**
+	 * Can establish a connection.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void canEstablishAConnection() throws Exception {
+		assertNotNull(instance);
+	}
+
+	/**
+	 * Method with one params.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void methodWithOneParams() throws Exception {
+		assertEquals("methodWithOneParams:First", instance
+				.methodWithOneParams("First"));
+		assertEquals("methodWithOneParams:null", instance
+				.methodWithOneParams(null));
+	}
+
+	/**
+	 * Method with three params.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void methodWithThreeParams() throws Exception {
+		for (int i = 0; i < 3; i++)
+			assertEquals("methodWithThreeParams:First:Second:Third", instance
+					.methodWithThreeParams("First", "Second", "Third"));
+	}
+
+	/**
+	 * Method with zero params.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void methodWithZeroParams() throws Exception {
+		assertEquals("methodWithZeroParams", instance.methodWithZeroParams());
+	}
+}
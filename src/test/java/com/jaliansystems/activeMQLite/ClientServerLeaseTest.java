@@ -0,0 +1,180 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.jaliansystems.activeMQLite.ClientServerRemoteObjectsUsedAsRemoteObjectsTest.ClientServerReturnTest;
+import com.jaliansystems.activeMQLite.ClientServerRemoteObjectsUsedAsRemoteObjectsTest.IBean;
+import com.jaliansystems.activeMQLite.ClientServerRemoteObjectsUsedAsRemoteObjectsTest.IClientServerReturnTypeTest;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ClientServerLeaseTest. The lease timers of connections. The
+ * expiry of leases is tested by ObjectRepositoryTest and LeaseWheelTest.
+ */
+public class ClientServerLeaseTest {
+
+	/** The lease used by the server, long enough not to end during a test. */
+	private static final long LEASE = 60000;
+
+	/** The longest time to wait for a timer thread to end. */
+	private static final long TIMEOUT = 10000;
+
+	/** The broker URL. */
+	private static final String BROKER_URL = "tcp://localhost:61125";
+
+	/** The server. */
+	private static JMSConnection server;
+
+	/** The server that does not lease its handles. */
+	private static JMSConnection plainServer;
+
+	/** The broker service. */
+	private static BrokerService brokerService;
+
+	/**
+	 * Sets the up class.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		brokerService = JMSConnection.startBrokerService(61125);
+		server = new JMSConnection("lease-server", BROKER_URL);
+		server.setLeaseDuration(LEASE, 1000);
+		server.publish(new ClientServerReturnTest(),
+				IClientServerReturnTypeTest.class);
+		server.exportInterface(IBean.class);
+		plainServer = new JMSConnection("lease-plain-server", BROKER_URL);
+		plainServer.publish(new ClientServerReturnTest(),
+				IClientServerReturnTypeTest.class);
+		plainServer.exportInterface(IBean.class);
+	}
+
+	/**
+	 * Teardown class.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@AfterClass
+	public static void teardownClass() throws Exception {
+		plainServer.close();
+		server.close();
+		JMSConnection.stopBrokerService(brokerService);
+	}
+
+	/**
+	 * A client renews leases once it holds a leased handle and stops when it
+	 * is closed.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void renewsLeasesOfLookedUpObjects() throws Exception {
+		JMSConnection client = new JMSConnection("lease-client", BROKER_URL);
+		assertFalse(hasThread("JMSConnection-lease-client-leases"));
+		IClientServerReturnTypeTest instance = client.lookup("lease-server",
+				IClientServerReturnTypeTest.class);
+		assertTrue(hasThread("JMSConnection-lease-client-leases"));
+		assertEquals("JMSLite", instance.ibeanReturn().getName());
+		assertEquals(0, server.getExpiredHandleCount());
+		client.close();
+		assertTrue(waitForThreadEnd("JMSConnection-lease-client-leases"));
+	}
+
+	/**
+	 * A client of a connection that does not lease its handles has no lease
+	 * timer thread.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void doesNotRenewHandlesWithoutLeases() throws Exception {
+		JMSConnection client = new JMSConnection("lease-plain-client",
+				BROKER_URL);
+		IClientServerReturnTypeTest instance = client.lookup(
+				"lease-plain-server", IClientServerReturnTypeTest.class);
+		assertEquals("JMSLite", instance.ibeanReturn().getName());
+		assertFalse(hasThread("JMSConnection-lease-plain-client-leases"));
+		client.close();
+	}
+
+	/**
+	 * A connection that does not use leases has no lease timer thread.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void leaseTimerStartsWithTheFirstLease() throws Exception {
+		JMSConnection idle = new JMSConnection("lease-idle", BROKER_URL);
+		assertFalse(hasThread("JMSConnection-lease-idle-leases"));
+		try {
+			idle.setLeaseDuration(LEASE, 0);
+			fail("A sweep interval of 0 should be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+		assertFalse(hasThread("JMSConnection-lease-idle-leases"));
+		idle.setLeaseDuration(LEASE, 50);
+		assertTrue(hasThread("JMSConnection-lease-idle-leases"));
+		idle.close();
+		assertTrue(waitForThreadEnd("JMSConnection-lease-idle-leases"));
+	}
+
+	/**
+	 * Waits for the thread with the given name to end.
+	 *
+	 * @param name
+	 *            the name
+	 * @return true, if there is no such thread
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private static boolean waitForThreadEnd(String name)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (hasThread(name) && System.currentTimeMillis() < deadline)
+			Thread.sleep(50);
+		return !hasThread(name);
+	}
+
+	/**
+	 * Checks whether a live thread has the given name.
+	 *
+	 * @param name
+	 *            the name
+	 * @return true, if there is such a thread
+	 */
+	private static boolean hasThread(String name) {
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			if (name.equals(thread.getName()) && thread.isAlive())
+				return true;
+		return false;
+	}
+}
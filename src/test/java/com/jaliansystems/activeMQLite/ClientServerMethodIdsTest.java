@@ -0,0 +1,109 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.jaliansystems.activeMQLite.ClientServerRemoteObjectsUsedAsRemoteObjectsTest.ClientServerReturnTest;
+import com.jaliansystems.activeMQLite.ClientServerRemoteObjectsUsedAsRemoteObjectsTest.IBean;
+import com.jaliansystems.activeMQLite.ClientServerRemoteObjectsUsedAsRemoteObjectsTest.IClientServerReturnTypeTest;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ClientServerMethodIdsTest. Calls on remote objects between
+ * connections that send the methods of calls as method ids.
+ */
+public class ClientServerMethodIdsTest {
+
+	/** The instance. */
+	private static IClientServerReturnTypeTest instance;
+
+	/** The server. */
+	private static JMSConnection server;
+
+	/** The broker service. */
+	private static BrokerService brokerService;
+
+	/**
+	 * Sets the up class.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		brokerService = JMSConnection.startBrokerService(61124);
+		server = new JMSConnection("server", "tcp://localhost:61124");
+		server.setUseMethodIds(true);
+		server.publish(new ClientServerReturnTest(),
+				IClientServerReturnTypeTest.class);
+		server.exportInterface(IBean.class);
+		JMSConnection client = new JMSConnection("client",
+				"tcp://localhost:61124");
+		client.setUseMethodIds(true);
+		instance = client.lookup("server", IClientServerReturnTypeTest.class);
+	}
+
+	/**
+	 * Teardown class.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@AfterClass
+	public static void teardownClass() throws Exception {
+		JMSConnection.stopBrokerService(brokerService);
+	}
+
+	/**
+	 * Can establish a connection.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void canEstablishAConnection() throws Exception {
+		assertNotNull(instance);
+	}
+
+	/**
+	 * Calls methods of returned remote objects by id.
+	 */
+	@Test
+	public void callsMethodsOfRemoteObjects() {
+		IBean ibean = instance.ibeanReturn();
+		assertEquals("JMSLite", ibean.getName());
+		assertEquals(2, ibean.getAge());
+		assertEquals("Software", ibean.getTitle());
+		assertEquals("NoSetterGetter", ibean.noSetterGetter());
+	}
+
+	/**
+	 * Passes remote objects back to their connection.
+	 */
+	@Test
+	public void passesRemoteObjectsBack() {
+		IBean ibean = instance.ibeanReturn();
+		IBean back = instance.getMeBackTheRemote(ibean);
+		assertEquals("JMSLite", back.getName());
+	}
+}
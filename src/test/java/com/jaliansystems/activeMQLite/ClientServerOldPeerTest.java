@@ -0,0 +1,290 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.jaliansystems.activeMQLite.ClientServerNParamTest.ClientServerReturnTest;
+import com.jaliansystems.activeMQLite.ClientServerNParamTest.IClientServerNParamTest;
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessage;
+import com.jaliansystems.activeMQLite.impl.MessageContext;
+import com.jaliansystems.activeMQLite.impl.ObjectHandle;
+import com.jaliansystems.activeMQLite.impl.ObjectRepository;
+import com.jaliansystems.activeMQLite.impl.RepositoryService;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ClientServerOldPeerTest. Calls between connections that use all
+ * encoding features and peers of an older version, which neither tell their
+ * features nor decode anything but the plain encoding.
+ */
+public class ClientServerOldPeerTest {
+
+	/** The broker URL. */
+	private static final String BROKER_URL = "tcp://localhost:61126";
+
+	/**
+	 * A parameter long enough to be compressed.
+	 */
+	private static final String PARAM;
+
+	static {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 10000)
+			sb.append("Old Peer Param ").append(sb.length());
+		PARAM = sb.toString();
+	}
+
+	/**
+	 * A server of an older version. It answers lookups with the handle only
+	 * and counts the requests that are not plain.
+	 */
+	private static class OldServer implements MessageListener {
+		private final ObjectRepository repository = new ObjectRepository(
+				BROKER_URL, "old-server-request");
+		private final Session session;
+		private final MessageProducer producer;
+		private final AtomicInteger encodedRequests = new AtomicInteger();
+		private final AtomicInteger requests = new AtomicInteger();
+
+		public OldServer(Connection connection) throws Exception {
+			repository.publish(new ClientServerReturnTest(),
+					IClientServerNParamTest.class);
+			session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			producer = session.createProducer(null);
+			producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+			session.createConsumer(session.createQueue("old-server-request"))
+					.setMessageListener(this);
+		}
+
+		public void onMessage(Message m) {
+			try {
+				requests.incrementAndGet();
+				if (m.propertyExists(JMSLiteMessage.FEATURES_PROPERTY))
+					encodedRequests.incrementAndGet();
+				JMSLiteMessage request = new JMSLiteMessage(
+						(ActiveMQBytesMessage) m);
+				byte type = (Byte) request.read();
+				JMSLiteMessage response = new JMSLiteMessage(MessageContext
+						.getDefault(), 0);
+				response.write(type);
+				if (type == RepositoryService.MESSAGE_LOOKUP) {
+					response.write(repository.lookup(Class
+							.forName((String) request.read())));
+				} else if (type == RepositoryService.MESSAGE_CALL) {
+					response.write((byte) 0);
+					response.write(repository.invoke(request));
+				} else if (type == RepositoryService.MESSAGE_REMOVE) {
+					response.write(repository.removeObject((ObjectHandle) request
+							.read()));
+				} else
+					return;
+				response.setJMSCorrelationID(m.getJMSCorrelationID());
+				producer.send(m.getJMSReplyTo(), response.toJMSMessage());
+			} catch (Exception e) {
+				encodedRequests.incrementAndGet();
+			}
+		}
+	}
+
+	/** The connection used by the old peers. */
+	private static Connection oldConnection;
+
+	/** The old server. */
+	private static OldServer oldServer;
+
+	/** The server. */
+	private static JMSConnection server;
+
+	/** The client. */
+	private static JMSConnection client;
+
+	/** The broker service. */
+	private static BrokerService brokerService;
+
+	/**
+	 * Sets the up class.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		brokerService = JMSConnection.startBrokerService(61126);
+		oldConnection = new ActiveMQConnectionFactory(BROKER_URL)
+				.createConnection();
+		oldConnection.start();
+		oldServer = new OldServer(oldConnection);
+		server = new JMSConnection("features-server", BROKER_URL);
+		useAllFeatures(server);
+		server.publish(new ClientServerReturnTest(),
+				IClientServerNParamTest.class);
+		client = new JMSConnection("features-client", BROKER_URL);
+		useAllFeatures(client);
+	}
+
+	/**
+	 * Teardown class.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@AfterClass
+	public static void teardownClass() throws Exception {
+		client.close();
+		server.close();
+		oldConnection.close();
+		JMSConnection.stopBrokerService(brokerService);
+	}
+
+	private static void useAllFeatures(JMSConnection connection) {
+		connection.setUseStringDictionary(true);
+		connection.setUseCompactEncoding(true);
+		connection.setUseBeanSchemas(true);
+		connection.setUseReferences(true);
+		connection.setUseLazyArguments(true);
+		connection.setUseMethodIds(true);
+		connection.setCompressionThreshold(16);
+	}
+
+	/**
+	 * A client sends plain requests to a server that did not tell its
+	 * features.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void sendsPlainRequestsToOldServers() throws Exception {
+		IClientServerNParamTest instance = client.lookup("old-server",
+				IClientServerNParamTest.class);
+		assertNotNull(instance);
+		assertEquals("methodWithOneParams:" + PARAM, instance
+				.methodWithOneParams(PARAM));
+		assertEquals("methodWithThreeParams:a:b:c", instance
+				.methodWithThreeParams("a", "b", "c"));
+		assertEquals(3, oldServer.requests.get());
+		assertEquals(0, oldServer.encodedRequests.get());
+	}
+
+	/**
+	 * A server sends plain responses to a client that did not tell its
+	 * features.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void sendsPlainResponsesToOldClients() throws Exception {
+		Session session = oldConnection.createSession(false,
+				Session.AUTO_ACKNOWLEDGE);
+		MessageProducer producer = session.createProducer(session
+				.createQueue("features-server-request"));
+		TemporaryQueue responseQueue = session.createTemporaryQueue();
+		MessageConsumer consumer = session.createConsumer(responseQueue);
+
+		producer.send(createLookup(responseQueue, "1"));
+		Message m = consumer.receive(10000);
+		assertNotNull(m);
+		assertFalse(m.propertyExists(JMSLiteMessage.FEATURES_PROPERTY));
+		JMSLiteMessage response = new JMSLiteMessage((ActiveMQBytesMessage) m);
+		assertEquals(RepositoryService.MESSAGE_LOOKUP, response.read());
+		ObjectHandle handle = (ObjectHandle) response.read();
+
+		JMSLiteMessage call = new JMSLiteMessage(MessageContext.getDefault(),
+				0);
+		call.write(RepositoryService.MESSAGE_CALL);
+		new ObjectRepository(BROKER_URL, "old-client-request")
+				.encodeMethodCall(call, handle, IClientServerNParamTest.class
+						.getMethod("methodWithOneParams", String.class), PARAM);
+		call.setJMSReplyTo(responseQueue);
+		call.setJMSCorrelationID("2");
+		producer.send(call.toJMSMessage());
+		m = consumer.receive(10000);
+		assertNotNull(m);
+		assertFalse(m.propertyExists(JMSLiteMessage.FEATURES_PROPERTY));
+		response = new JMSLiteMessage((ActiveMQBytesMessage) m);
+		assertEquals(RepositoryService.MESSAGE_CALL, response.read());
+		assertEquals((byte) 0, response.read());
+		assertEquals("methodWithOneParams:" + PARAM, response.read());
+		session.close();
+	}
+
+	/**
+	 * A server does not answer a remove without a reply destination.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void doesNotAnswerOneWayRemoves() throws Exception {
+		Session session = oldConnection.createSession(false,
+				Session.AUTO_ACKNOWLEDGE);
+		MessageProducer producer = session.createProducer(session
+				.createQueue("features-server-request"));
+		TemporaryQueue responseQueue = session.createTemporaryQueue();
+		MessageConsumer consumer = session.createConsumer(responseQueue);
+
+		producer.send(createLookup(responseQueue, "1"));
+		Message m = consumer.receive(10000);
+		assertNotNull(m);
+		JMSLiteMessage response = new JMSLiteMessage((ActiveMQBytesMessage) m);
+		assertEquals(RepositoryService.MESSAGE_LOOKUP, response.read());
+		ObjectHandle handle = (ObjectHandle) response.read();
+
+		JMSLiteMessage remove = new JMSLiteMessage(MessageContext
+				.getDefault(), 0);
+		remove.write(RepositoryService.MESSAGE_REMOVE);
+		remove.write(handle);
+		producer.send(remove.toJMSMessage());
+		producer.send(createLookup(responseQueue, "2"));
+		m = consumer.receive(10000);
+		assertNotNull(m);
+		assertEquals("2", m.getJMSCorrelationID());
+		session.close();
+	}
+
+	private static Message createLookup(TemporaryQueue responseQueue,
+			String cID) throws Exception {
+		JMSLiteMessage lookup = new JMSLiteMessage(MessageContext
+				.getDefault(), 0);
+		lookup.write(RepositoryService.MESSAGE_LOOKUP);
+		lookup.write(IClientServerNParamTest.class.getName());
+		lookup.setJMSReplyTo(responseQueue);
+		lookup.setJMSCorrelationID(cID);
+		return lookup.toJMSMessage();
+	}
+}
@@ -76,6 +76,13 @@ public class ClientServerParamTypeTest {
 			return "Boolean:" + p;
 		}
 
+		/* (non-Javadoc)
+		 * @see com.jaliansystems.jmslite.ClientServerParamTypeTest.IBeanServer#charParam(char)
+		 */
+		public String charParam(char p) {
+			return "Char:" + p;
+		}
+
 		/* (non-Javadoc)
 		 * @see com.jaliansystems.jmslite.ClientServerParamTypeTest.IBeanServer#doubleParam(double)
 		 */
@@ -168,6 +175,14 @@ public class ClientServerParamTypeTest {
 		 */
 		public String booleanParam(boolean p);
 
+		/**
+		 * Char param.
+		 *
+		 * @param p the p
+		 * @return the string
+		 */
+		public String charParam(char p);
+
 		/**
 		 * Double param.
 		 *
@@ -310,6 +325,19 @@ public class ClientServerParamTypeTest {
 		assertEquals("SomeField", b2.getSomeField());
 	}
 
+	/**
+	 * Passes strings longer than 64K.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void passesLongStrings() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 100000)
+			sb.append("Long String Param \u0b85 ");
+		assertEquals("String:" + sb, iBeanServer.stringParam(sb.toString()));
+	}
+
 	/**
 	 * Passes null parameters.
 	 *
@@ -334,6 +362,7 @@ public class ClientServerParamTypeTest {
 		assertEquals("Double:1180.101", iBeanServer.doubleParam(1180.101));
 		assertEquals("Boolean:true", iBeanServer.booleanParam(true));
 		assertEquals("Boolean:false", iBeanServer.booleanParam(false));
+		assertEquals("Char:\u0b85", iBeanServer.charParam('\u0b85'));
 	}
 
 	/**
@@ -19,6 +19,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.activemq.broker.BrokerService;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -158,6 +161,16 @@ public class ClientServerReturnTypeTest {
 			return new Bean("JMSLite", 2, "Software");
 		}
 
+		/* (non-Javadoc)
+		 * @see com.jaliansystems.activeMQLite.ClientServerReturnTypeTest.IClientServerReturnTypeTest#beanListReturn()
+		 */
+		public List<Bean> beanListReturn() {
+			List<Bean> beans = new ArrayList<Bean>();
+			beans.add(new Bean("JMSLite", 2, "Software"));
+			beans.add(new Bean("ActiveMQ", 5, "Broker"));
+			return beans;
+		}
+
 		/* (non-Javadoc)
 		 * @see com.jaliansystems.jmslite.ClientServerReturnTypeTest.IClientServerReturnTypeTest#booleanReturn()
 		 */
@@ -297,6 +310,13 @@ public class ClientServerReturnTypeTest {
 		 */
 		public Bean beanReturn();
 
+		/**
+		 * Bean list return.
+		 *
+		 * @return the list of beans
+		 */
+		public List<Bean> beanListReturn();
+
 		/**
 		 * Boolean return.
 		 *
@@ -420,6 +440,17 @@ public class ClientServerReturnTypeTest {
 		assertNotNull(instance);
 	}
 
+	/**
+	 * Method returns lists of beans.
+	 */
+	@Test
+	public void methodReturnsListsOfBeans() {
+		List<Bean> beans = instance.beanListReturn();
+		assertEquals(2, beans.size());
+		assertEquals("JMSLite", beans.get(0).getName());
+		assertEquals("Broker", beans.get(1).getTitle());
+	}
+
 	/**
 	 * Method returns null.
 	 */
@@ -0,0 +1,72 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessage;
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessageTest.JavaBean;
+import com.jaliansystems.activeMQLite.impl.MessageContext;
+
+/**
+ * Measures encoding and decoding a call with JMSLiteMessage on its own, from
+ * and to a byte array, and wrapped in an ActiveMQBytesMessage as it is sent
+ * and received.
+ *
+ * Not a unit test. Run the main method with the test classpath.
+ */
+public class CodecBenchmark {
+
+	private static final int ROUNDS = 200000;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Object[] params = new Object[] { "method", 42,
+				new JavaBean("Name", 10, true), new int[64], "A longer string" };
+		MessageContext context = new MessageContext();
+		for (int pass = 0; pass < 3; pass++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < ROUNDS; i++) {
+				JMSLiteMessage message = new JMSLiteMessage(context);
+				message.write(params);
+				byte[] body = message.toByteArray();
+				new JMSLiteMessage(body, 0, body.length, context, message
+						.getFeatures()).read();
+			}
+			report("byte[]", System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (int i = 0; i < ROUNDS; i++) {
+				JMSLiteMessage message = new JMSLiteMessage(context);
+				message.write(params);
+				ActiveMQBytesMessage sent = message.toJMSMessage();
+				new JMSLiteMessage(sent, context).read();
+			}
+			report("JMS   ", System.nanoTime() - start);
+		}
+	}
+
+	private static void report(String name, long nanos) {
+		System.out.println(name + ": " + nanos / ROUNDS + " ns per round trip");
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.jaliansystems.activeMQLite.impl.BlockCompressor;
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessage;
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessageTest.JavaBean;
+
+/**
+ * Compares the block compressor used by JMSConnection.setCompressionThreshold
+ * with deflate, which is what ActiveMQ uses for useCompression.
+ *
+ * Not a unit test. Run the main method with the test classpath.
+ */
+public class CompressionBenchmark {
+
+	private static final int ROUNDS = 200;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, byte[]> payloads = payloads();
+		for (int pass = 0; pass < 3; pass++) {
+			for (Map.Entry<String, byte[]> entry : payloads.entrySet()) {
+				byte[] data = entry.getValue();
+				report(entry.getKey(), "block  ", data.length, block(data));
+				report(entry.getKey(), "deflate", data.length, deflate(data));
+			}
+		}
+	}
+
+	private static Map<String, byte[]> payloads() throws Exception {
+		Map<String, byte[]> payloads = new LinkedHashMap<String, byte[]>();
+
+		Object[] beans = new Object[2000];
+		for (int i = 0; i < beans.length; i++)
+			beans[i] = new JavaBean("Name " + i % 50, i, i % 3 == 0);
+		payloads.put("bean array ", body(beans));
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 100000; i++)
+			sb.append("Line ").append(i).append(" of a long string param\n");
+		payloads.put("long string", body(sb.toString()));
+
+		int[] ints = new int[20000];
+		for (int i = 0; i < ints.length; i++)
+			ints[i] = i * 7;
+		payloads.put("int array  ", body(ints));
+
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 1000; i++) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("id", Long.valueOf(i));
+			row.put("price", Double.valueOf(i * 1.25));
+			row.put("symbol", "SYM" + i % 20);
+			rows.add(row);
+		}
+		payloads.put("map list   ", body(rows));
+		return payloads;
+	}
+
+	private static byte[] body(Object value) throws Exception {
+		JMSLiteMessage message = new JMSLiteMessage();
+		message.write(value);
+		return message.toByteArray();
+	}
+
+	private static long[] block(byte[] data) {
+		byte[] compressed = new byte[BlockCompressor
+				.maxCompressedLength(data.length)];
+		byte[] result = new byte[data.length];
+		int len = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			len = BlockCompressor.compress(data, 0, data.length, compressed, 0);
+		long compress = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			BlockCompressor.decompress(compressed, 0, len, result, 0,
+					data.length);
+		return new long[] { len, compress, System.nanoTime() - start };
+	}
+
+	private static long[] deflate(byte[] data) throws Exception {
+		byte[] compressed = new byte[data.length + 1024];
+		byte[] result = new byte[data.length];
+		int len = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			Deflater deflater = new Deflater();
+			deflater.setInput(data);
+			deflater.finish();
+			len = deflater.deflate(compressed);
+			deflater.end();
+		}
+		long compress = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			Inflater inflater = new Inflater();
+			inflater.setInput(compressed, 0, len);
+			inflater.inflate(result);
+			inflater.end();
+		}
+		return new long[] { len, compress, System.nanoTime() - start };
+	}
+
+	private static void report(String payload, String codec, int size,
+			long[] result) {
+		long bytes = (long) size * ROUNDS * 1000;
+		System.out.println(payload + " " + codec + ": " + size + " -> "
+				+ result[0] + " bytes, compress " + bytes / result[1]
+				+ " MB/s, decompress " + bytes / result[2] + " MB/s");
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jaliansystems.activeMQLite.impl.HandleTable;
+import com.jaliansystems.activeMQLite.impl.ObjectHandle;
+
+/**
+ * Compares the handle storage of ObjectRepository, a HandleTable, with the
+ * ArrayList that was searched for a handle before and with a
+ * ConcurrentHashMap keyed by Integer. For each size the table is filled, the
+ * heap it retains is measured, random ids are looked up and handles are
+ * removed and put back.
+ *
+ * The sizes are given as arguments and default to 10000, 1000000 and
+ * 10000000. The largest size needs a heap of a few gigabytes (-Xmx4g). The
+ * ArrayList is only searched a few times at the larger sizes, since every
+ * lookup walks the list.
+ *
+ * Not a unit test. Run the main method with the test classpath.
+ */
+public class HandleTableBenchmark {
+
+	private static final int LOOKUPS = 1000000;
+
+	/**
+	 * The Interface Store.
+	 */
+	private interface Store {
+		String getName();
+
+		void put(ObjectHandle handle);
+
+		ObjectHandle get(int id);
+
+		void remove(int id);
+	}
+
+	/**
+	 * The Class ListStore.
+	 */
+	private static class ListStore implements Store {
+		private final List<ObjectHandle> handles = new ArrayList<ObjectHandle>();
+
+		public String getName() {
+			return "ArrayList        ";
+		}
+
+		public void put(ObjectHandle handle) {
+			handles.add(handle);
+		}
+
+		public ObjectHandle get(int id) {
+			for (ObjectHandle handle : handles)
+				if (handle.getID() == id)
+					return handle;
+			return null;
+		}
+
+		public void remove(int id) {
+			handles.remove(get(id));
+		}
+	}
+
+	/**
+	 * The Class MapStore.
+	 */
+	private static class MapStore implements Store {
+		private final ConcurrentHashMap<Integer, ObjectHandle> handles = new ConcurrentHashMap<Integer, ObjectHandle>();
+
+		public String getName() {
+			return "ConcurrentHashMap";
+		}
+
+		public void put(ObjectHandle handle) {
+			handles.put(handle.getID(), handle);
+		}
+
+		public ObjectHandle get(int id) {
+			return handles.get(id);
+		}
+
+		public void remove(int id) {
+			handles.remove(id);
+		}
+	}
+
+	/**
+	 * The Class TableStore.
+	 */
+	private static class TableStore implements Store {
+		private final HandleTable handles = new HandleTable();
+
+		public String getName() {
+			return "HandleTable      ";
+		}
+
+		public void put(ObjectHandle handle) {
+			handles.put(handle.getID(), handle);
+		}
+
+		public ObjectHandle get(int id) {
+			return handles.get(id);
+		}
+
+		public void remove(int id) {
+			handles.remove(id);
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the sizes
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0)
+			args = new String[] { "10000", "1000000", "10000000" };
+		for (String arg : args) {
+			int size = Integer.parseInt(arg);
+			ObjectHandle[] handles = new ObjectHandle[size];
+			for (int i = 0; i < size; i++)
+				handles[i] = new ObjectHandle(i + 1, null, Runnable.class,
+						"vm://benchmark", "queue");
+			System.out.println(size + " handles");
+			for (int pass = 0; pass < 2; pass++) {
+				run(new ListStore(), handles);
+				run(new MapStore(), handles);
+				run(new TableStore(), handles);
+			}
+		}
+	}
+
+	private static void run(Store store, ObjectHandle[] handles) {
+		int size = handles.length;
+		int lookups = store instanceof ListStore ? Math.min(LOOKUPS,
+				(int) (10000000000L / size / size) + 1) : LOOKUPS;
+		long before = usedMemory();
+		long start = System.nanoTime();
+		for (ObjectHandle handle : handles)
+			store.put(handle);
+		long fill = System.nanoTime() - start;
+		long bytes = usedMemory() - before;
+
+		Random random = new Random(size);
+		int found = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < lookups; i++)
+			if (store.get(random.nextInt(size) + 1) != null)
+				found++;
+		long get = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			int index = random.nextInt(size);
+			store.remove(index + 1);
+			store.put(handles[index]);
+		}
+		long churn = System.nanoTime() - start;
+		if (found != lookups)
+			throw new IllegalStateException(store.getName() + " lost handles");
+
+		System.out.println("  " + store.getName() + ": " + bytes / size
+				+ " bytes per handle, put " + fill / size + " ns, get " + get
+				/ lookups + " ns, remove and put " + churn / lookups + " ns");
+		if (store instanceof TableStore)
+			System.out.println("  HandleTable      : estimated "
+					+ ((TableStore) store).handles.getMemoryFootprint() / size
+					+ " bytes per handle");
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,368 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class BeanAccessorGeneratorTest. Generated accessors read and write the
+ * same values as the reflective accessor.
+ */
+public class BeanAccessorGeneratorTest {
+
+	/**
+	 * A bean with a property of every primitive and boxed type, a static
+	 * property, a setter only property and a setter that returns a value.
+	 */
+	public static class AllTypes {
+		private static String version;
+		private int intValue;
+		private long longValue;
+		private boolean booleanValue;
+		private double doubleValue;
+		private float floatValue;
+		private short shortValue;
+		private byte byteValue;
+		private char charValue;
+		private Integer boxedInt;
+		private Long boxedLong;
+		private Boolean boxedBoolean;
+		private Double boxedDouble;
+		private Float boxedFloat;
+		private Short boxedShort;
+		private Byte boxedByte;
+		private Character boxedChar;
+		private String string;
+		private String nickname;
+
+		public static String getVersion() {
+			return version;
+		}
+
+		public static void setVersion(String version) {
+			AllTypes.version = version;
+		}
+
+		public int getIntValue() {
+			return intValue;
+		}
+
+		public void setIntValue(int intValue) {
+			this.intValue = intValue;
+		}
+
+		public long getLongValue() {
+			return longValue;
+		}
+
+		public long setLongValue(long longValue) {
+			long old = this.longValue;
+			this.longValue = longValue;
+			return old;
+		}
+
+		public boolean isBooleanValue() {
+			return booleanValue;
+		}
+
+		public void setBooleanValue(boolean booleanValue) {
+			this.booleanValue = booleanValue;
+		}
+
+		public double getDoubleValue() {
+			return doubleValue;
+		}
+
+		public void setDoubleValue(double doubleValue) {
+			this.doubleValue = doubleValue;
+		}
+
+		public float getFloatValue() {
+			return floatValue;
+		}
+
+		public void setFloatValue(float floatValue) {
+			this.floatValue = floatValue;
+		}
+
+		public short getShortValue() {
+			return shortValue;
+		}
+
+		public void setShortValue(short shortValue) {
+			this.shortValue = shortValue;
+		}
+
+		public byte getByteValue() {
+			return byteValue;
+		}
+
+		public void setByteValue(byte byteValue) {
+			this.byteValue = byteValue;
+		}
+
+		public char getCharValue() {
+			return charValue;
+		}
+
+		public void setCharValue(char charValue) {
+			this.charValue = charValue;
+		}
+
+		public Integer getBoxedInt() {
+			return boxedInt;
+		}
+
+		public void setBoxedInt(Integer boxedInt) {
+			this.boxedInt = boxedInt;
+		}
+
+		public Long getBoxedLong() {
+			return boxedLong;
+		}
+
+		public void setBoxedLong(Long boxedLong) {
+			this.boxedLong = boxedLong;
+		}
+
+		public Boolean getBoxedBoolean() {
+			return boxedBoolean;
+		}
+
+		public void setBoxedBoolean(Boolean boxedBoolean) {
+			this.boxedBoolean = boxedBoolean;
+		}
+
+		public Double getBoxedDouble() {
+			return boxedDouble;
+		}
+
+		public void setBoxedDouble(Double boxedDouble) {
+			this.boxedDouble = boxedDouble;
+		}
+
+		public Float getBoxedFloat() {
+			return boxedFloat;
+		}
+
+		public void setBoxedFloat(Float boxedFloat) {
+			this.boxedFloat = boxedFloat;
+		}
+
+		public Short getBoxedShort() {
+			return boxedShort;
+		}
+
+		public void setBoxedShort(Short boxedShort) {
+			this.boxedShort = boxedShort;
+		}
+
+		public Byte getBoxedByte() {
+			return boxedByte;
+		}
+
+		public void setBoxedByte(Byte boxedByte) {
+			this.boxedByte = boxedByte;
+		}
+
+		public Character getBoxedChar() {
+			return boxedChar;
+		}
+
+		public void setBoxedChar(Character boxedChar) {
+			this.boxedChar = boxedChar;
+		}
+
+		public String getString() {
+			return string;
+		}
+
+		public void setString(String string) {
+			this.string = string;
+		}
+
+		public void setNickname(String nickname) {
+			this.nickname = nickname;
+		}
+
+		public String nickname() {
+			return nickname;
+		}
+	}
+
+	/**
+	 * A bean that is not public.
+	 */
+	static class Hidden {
+		private int value;
+
+		public int getValue() {
+			return value;
+		}
+
+		public void setValue(int value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A public bean with a property of a type that is not public.
+	 */
+	public static class WithHidden {
+		private Hidden hidden;
+
+		public Hidden getHidden() {
+			return hidden;
+		}
+
+		public void setHidden(Hidden hidden) {
+			this.hidden = hidden;
+		}
+	}
+
+	/** The values written to the properties of AllTypes by name. */
+	private static final Map<String, Object> VALUES = new HashMap<String, Object>();
+
+	static {
+		VALUES.put("Version", "1.0");
+		VALUES.put("IntValue", Integer.valueOf(-42));
+		VALUES.put("LongValue", Long.valueOf(Long.MAX_VALUE));
+		VALUES.put("BooleanValue", Boolean.TRUE);
+		VALUES.put("DoubleValue", Double.valueOf(21.12));
+		VALUES.put("FloatValue", Float.valueOf(-1.5f));
+		VALUES.put("ShortValue", Short.valueOf(Short.MIN_VALUE));
+		VALUES.put("ByteValue", Byte.valueOf((byte) 0x7f));
+		VALUES.put("CharValue", Character.valueOf('x'));
+		VALUES.put("BoxedInt", Integer.valueOf(7));
+		VALUES.put("BoxedLong", Long.valueOf(-7));
+		VALUES.put("BoxedBoolean", Boolean.FALSE);
+		VALUES.put("BoxedDouble", Double.valueOf(Double.NaN));
+		VALUES.put("BoxedFloat", Float.valueOf(3.25f));
+		VALUES.put("BoxedShort", Short.valueOf((short) 12));
+		VALUES.put("BoxedByte", Byte.valueOf((byte) -3));
+		VALUES.put("BoxedChar", Character.valueOf('\u20ac'));
+		VALUES.put("String", "JMSLite");
+		VALUES.put("Nickname", "Lite");
+	}
+
+	/**
+	 * Values written by one accessor are read back by the other for every
+	 * property.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void generatedAccessorMatchesReflectiveAccessor() throws Exception {
+		BeanDescriptor descriptor = BeanDescriptor.forClass(AllTypes.class);
+		BeanAccessor generated = descriptor.getAccessor(true);
+		BeanAccessor reflective = descriptor.getAccessor(false);
+		assertFalse(generated instanceof ReflectiveBeanAccessor);
+		assertEquals(VALUES.size(), descriptor.getPropertyCount());
+		assertEquals(VALUES.size() - 1, descriptor.getGetterCount());
+
+		roundTrip(descriptor, generated, reflective);
+		roundTrip(descriptor, reflective, generated);
+	}
+
+	private void roundTrip(BeanDescriptor descriptor, BeanAccessor writer,
+			BeanAccessor reader) throws Exception {
+		AllTypes.setVersion(null);
+		AllTypes bean = new AllTypes();
+		for (int i = 0; i < descriptor.getPropertyCount(); i++) {
+			Object value = VALUES.get(descriptor.getName(i));
+			assertNotNull(descriptor.getName(i), value);
+			writer.set(bean, i, value);
+		}
+		for (int i = 0; i < descriptor.getGetterCount(); i++) {
+			Object value = VALUES.get(descriptor.getName(i));
+			assertEquals(descriptor.getName(i), value, reader.get(bean, i));
+			assertEquals(descriptor.getName(i), value, writer.get(bean, i));
+		}
+		assertEquals(VALUES.get("Version"), AllTypes.getVersion());
+		assertEquals(VALUES.get("Nickname"), bean.nickname());
+	}
+
+	/**
+	 * The generated accessor rejects property indexes outside the bean.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void rejectsUnknownIndexes() throws Exception {
+		BeanDescriptor descriptor = BeanDescriptor.forClass(AllTypes.class);
+		BeanAccessor generated = descriptor.getAccessor(true);
+		int getterIndex = descriptor.getGetterCount();
+		int setterIndex = descriptor.getPropertyCount();
+		try {
+			generated.get(new AllTypes(), getterIndex);
+			fail("The getter index should be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			generated.set(new AllTypes(), setterIndex, null);
+			fail("The setter index should be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Beans that are not public or have properties of types that are not
+	 * public fall back to the reflective accessor.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void fallsBackToReflectionForNonPublicClasses() throws Exception {
+		BeanDescriptor hidden = BeanDescriptor.forClass(Hidden.class);
+		assertNull(BeanAccessorGenerator.generate(hidden));
+		BeanAccessor accessor = hidden.getAccessor(true);
+		assertTrue(accessor instanceof ReflectiveBeanAccessor);
+		Hidden bean = new Hidden();
+		accessor.set(bean, 0, Integer.valueOf(5));
+		assertEquals(Integer.valueOf(5), accessor.get(bean, 0));
+
+		BeanDescriptor withHidden = BeanDescriptor.forClass(WithHidden.class);
+		assertNull(BeanAccessorGenerator.generate(withHidden));
+		assertTrue(withHidden.getAccessor(true) instanceof ReflectiveBeanAccessor);
+	}
+
+	/**
+	 * Message contexts use the reflective accessor unless generated accessors
+	 * are enabled.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void reflectiveAccessorIsTheDefault() throws Exception {
+		MessageContext context = new MessageContext();
+		BeanDescriptor descriptor = BeanDescriptor.forClass(AllTypes.class);
+		assertFalse(context.isUseGeneratedAccessors());
+		assertTrue(context.getAccessor(descriptor) instanceof ReflectiveBeanAccessor);
+		context.setUseGeneratedAccessors(true);
+		assertFalse(context.getAccessor(descriptor) instanceof ReflectiveBeanAccessor);
+	}
+}
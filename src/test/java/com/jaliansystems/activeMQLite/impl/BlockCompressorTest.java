@@ -0,0 +1,106 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class BlockCompressorTest.
+ */
+public class BlockCompressorTest {
+
+	/**
+	 * Compresses repeated data.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void compressesRepeatedData() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++)
+			sb.append("Repeated text ").append(i % 10).append(' ');
+		byte[] data = sb.toString().getBytes("UTF-8");
+		byte[] compressed = roundTrip(data);
+		assertTrue(compressed.length * 10 < data.length);
+	}
+
+	/**
+	 * Handles overlapping matches.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void handlesOverlappingMatches() throws Exception {
+		byte[] data = new byte[100000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (i % 3);
+		assertTrue(roundTrip(data).length < 1000);
+	}
+
+	/**
+	 * Handles random and short data.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void handlesRandomAndShortData() throws Exception {
+		Random random = new Random(42);
+		for (int len = 0; len < 300; len++) {
+			byte[] data = new byte[len];
+			random.nextBytes(data);
+			roundTrip(data);
+		}
+		byte[] data = new byte[70000];
+		random.nextBytes(data);
+		for (int i = 0; i < data.length; i += 100)
+			data[i] = data[i / 2];
+		roundTrip(data);
+	}
+
+	/**
+	 * Rejects corrupt data.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCorruptData() throws Exception {
+		byte[] data = new byte[1000];
+		byte[] compressed = new byte[BlockCompressor
+				.maxCompressedLength(data.length)];
+		int len = BlockCompressor.compress(data, 0, data.length, compressed, 0);
+		BlockCompressor.decompress(compressed, 0, len, new byte[999], 0, 999);
+	}
+
+	private static byte[] roundTrip(byte[] data) {
+		byte[] compressed = new byte[3 + BlockCompressor
+				.maxCompressedLength(data.length)];
+		int len = BlockCompressor.compress(data, 0, data.length, compressed, 3);
+		byte[] result = new byte[data.length + 2];
+		BlockCompressor.decompress(compressed, 3, len, result, 2, data.length);
+		byte[] copy = new byte[data.length];
+		System.arraycopy(result, 2, copy, 0, data.length);
+		assertArrayEquals(data, copy);
+		byte[] b = new byte[len];
+		System.arraycopy(compressed, 3, b, 0, len);
+		return b;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class HandleTableTest.
+ */
+public class HandleTableTest {
+
+	/**
+	 * Creates a handle.
+	 *
+	 * @param id the id
+	 * @return the object handle
+	 */
+	private static ObjectHandle handle(int id) {
+		return new ObjectHandle(id, new Object(), Runnable.class, "vm://test",
+				"queue");
+	}
+
+	/**
+	 * Puts, gets and removes handles.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void putGetAndRemove() throws Exception {
+		HandleTable table = new HandleTable();
+		ObjectHandle one = handle(1);
+		ObjectHandle other = handle(1);
+		assertNull(table.put(1, one));
+		assertSame(one, table.get(1));
+		assertSame(one, table.put(1, other));
+		assertSame(other, table.get(1));
+		assertNull(table.get(2));
+		assertEquals(1, table.size());
+		assertFalse(table.remove(1, one));
+		assertSame(other, table.get(1));
+		assertTrue(table.remove(1, other));
+		assertEquals(0, table.size());
+		table.put(1, other);
+		assertSame(other, table.remove(1));
+		assertNull(table.remove(1));
+		assertNull(table.get(1));
+		assertEquals(0, table.size());
+	}
+
+	/**
+	 * Grows and shrinks with the number of handles.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void growsAndShrinks() throws Exception {
+		HandleTable table = new HandleTable();
+		long empty = table.getMemoryFootprint();
+		for (int i = 1; i <= 100000; i++)
+			table.put(i, handle(i));
+		assertEquals(100000, table.size());
+		assertTrue(table.getMemoryFootprint() > empty);
+		for (int i = 1; i <= 100000; i++)
+			assertEquals(i, table.get(i).getID());
+		for (int i = 1; i <= 100000; i++)
+			assertEquals(i, table.remove(i).getID());
+		assertEquals(0, table.size());
+		assertEquals(empty, table.getMemoryFootprint());
+	}
+
+	/**
+	 * Agrees with a HashMap over random operations.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void agreesWithHashMap() throws Exception {
+		HandleTable table = new HandleTable();
+		Map<Integer, ObjectHandle> expected = new HashMap<Integer, ObjectHandle>();
+		Random random = new Random(19);
+		for (int i = 0; i < 200000; i++) {
+			int id = random.nextInt(5000) - 100;
+			switch (random.nextInt(3)) {
+			case 0:
+				ObjectHandle handle = handle(id);
+				assertSame(expected.put(id, handle), table.put(id, handle));
+				break;
+			case 1:
+				assertSame(expected.remove(id), table.remove(id));
+				break;
+			default:
+				assertSame(expected.get(id), table.get(id));
+			}
+		}
+		assertEquals(expected.size(), table.size());
+		for (Map.Entry<Integer, ObjectHandle> entry : expected.entrySet())
+			assertSame(entry.getValue(), table.get(entry.getKey()));
+	}
+
+	/**
+	 * Keeps the handles of threads working at the same time.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void concurrentPutsAndRemoves() throws Exception {
+		final HandleTable table = new HandleTable();
+		final int perThread = 20000;
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int base = t * perThread;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++)
+						table.put(base + i, handle(base + i));
+					for (int i = 0; i < perThread; i += 2)
+						table.remove(base + i);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(threads.length * perThread / 2, table.size());
+		for (int i = 0; i < threads.length * perThread; i++) {
+			if (i % 2 == 0)
+				assertNull(table.get(i));
+			else
+				assertEquals(i, table.get(i).getID());
+		}
+	}
+}
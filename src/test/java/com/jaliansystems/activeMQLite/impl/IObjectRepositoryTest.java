@@ -15,6 +15,8 @@
  */
 package com.jaliansystems.activeMQLite.impl;
 
+import java.util.SortedSet;
+
 // TODO: Auto-generated Javadoc
 /**
  * The Interface IObjectRepositoryTest.
@@ -53,4 +55,20 @@ public interface IObjectRepositoryTest {
 	 */
 	public abstract Object takeThis(ObjectRepository localObjectRepository);
 
+	/**
+	 * Sum.
+	 *
+	 * @param values the values
+	 * @return the sum of values
+	 */
+	public abstract int sum(int[] values);
+
+	/**
+	 * First.
+	 *
+	 * @param values the values
+	 * @return the first of the values
+	 */
+	public abstract String first(SortedSet<String> values);
+
 }
@@ -17,9 +17,34 @@ package com.jaliansystems.activeMQLite.impl;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.util.ByteSequence;
 import org.junit.Test;
 
+import com.jaliansystems.activeMQLite.Codec;
+
 // TODO: Auto-generated Javadoc
 /**
  * The Class JMSLiteMessageTest.
@@ -161,6 +186,74 @@ public class JMSLiteMessageTest {
 
 	}
 
+	/**
+	 * The Class Node. A bean that refers to other nodes.
+	 */
+	public static class Node {
+
+		/** The name. */
+		private String name;
+
+		/** The next. */
+		private Node next;
+
+		/**
+		 * Gets the name.
+		 *
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the next.
+		 *
+		 * @return the next
+		 */
+		public Node getNext() {
+			return next;
+		}
+
+		/**
+		 * Sets the name.
+		 *
+		 * @param name the new name
+		 */
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Sets the next.
+		 *
+		 * @param next the new next
+		 */
+		public void setNext(Node next) {
+			this.next = next;
+		}
+	}
+
+	/**
+	 * The Enum Color.
+	 */
+	public enum Color {
+		
+		/** The RED. */
+		RED,
+		
+		/** The GREEN. A constant with a body of its own. */
+		GREEN {
+			/* (non-Javadoc)
+			 * @see java.lang.Enum#toString()
+			 */
+			@Override
+			public String toString() {
+				return "Green";
+			}
+		}
+	}
+
 	/**
 	 * Beans support null values.
 	 *
@@ -180,6 +273,608 @@ public class JMSLiteMessageTest {
 		assertEquals(expected, actual);
 	}
 
+	/**
+	 * Bean descriptors are built once per class.
+	 */
+	@Test
+	public void beanDescriptorsAreCached() {
+		BeanDescriptor descriptor = BeanDescriptor.forClass(JavaBean.class);
+
+		assertSame(descriptor, BeanDescriptor.forClass(JavaBean.class));
+		assertEquals(3, descriptor.getGetterCount());
+		assertNotNull(descriptor.getSetter(descriptor.indexOf("Name")));
+	}
+
+	/**
+	 * Compact encoding writes small numbers in a single byte.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void compactEncodingWritesSmallNumbersInASingleByte()
+			throws Exception {
+		MessageContext context = new MessageContext();
+		context.setFeature(JMSLiteMessage.FEATURE_COMPACT, true);
+		JMSLiteMessage message = new JMSLiteMessage(context);
+		Object[] expected = new Object[] { 1, -1, 63L, (short) -64,
+				Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE,
+				Long.MAX_VALUE, Short.MIN_VALUE };
+		message.write(1);
+		message.write(expected);
+		message.write(new int[] { 1, 2 });
+		message.write(new JavaBean("Name", -3, true));
+
+		message.makeReadable();
+
+		assertEquals(1, message.read());
+		assertArrayEquals(expected, (Object[]) message.read());
+		assertArrayEquals(new int[] { 1, 2 }, (int[]) message.read());
+		assertEquals(new JavaBean("Name", -3, true), message.read());
+
+		message = new JMSLiteMessage(context);
+		message.write(new Object[] { 1, -1, 63L, (short) -64 });
+		message.makeReadable();
+		assertEquals(2 + 4 * 2, message.getBodyLength());
+	}
+
+	/**
+	 * Dictionary coding shrinks arrays of beans.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void dictionaryCodingShrinksArraysOfBeans() throws Exception {
+		Object[] beans = new Object[1000];
+		for (int i = 0; i < beans.length; i++)
+			beans[i] = new JavaBean("Name", i, true);
+		ObjectHandle handle = new ObjectHandle(1, null, Runnable.class,
+				"tcp://localhost:61616", "server-request");
+
+		JMSLiteMessage plain = new JMSLiteMessage();
+		plain.write(beans);
+		plain.write(new Object[] { handle, handle });
+		plain.makeReadable();
+
+		MessageContext context = new MessageContext();
+		context.setFeature(JMSLiteMessage.FEATURE_DICTIONARY, true);
+		JMSLiteMessage message = new JMSLiteMessage(context);
+		message.write(beans);
+		message.write(new Object[] { handle, handle });
+		message.makeReadable();
+
+		assertTrue(message.getBodyLength() * 3 < plain.getBodyLength());
+		assertArrayEquals(beans, (Object[]) message.read());
+		assertArrayEquals(new Object[] { handle, handle }, (Object[]) message
+				.read());
+	}
+
+	/**
+	 * Bean schemas shrink arrays of beans.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void beanSchemasShrinkArraysOfBeans() throws Exception {
+		Object[] beans = new Object[1000];
+		for (int i = 0; i < beans.length; i++)
+			beans[i] = new JavaBean(i % 2 == 0 ? "Name" : null, i, i % 3 == 0);
+
+		MessageContext context = new MessageContext();
+		context.setFeature(JMSLiteMessage.FEATURE_DICTIONARY, true);
+		context.setFeature(JMSLiteMessage.FEATURE_COMPACT, true);
+		JMSLiteMessage named = new JMSLiteMessage(context);
+		named.write(beans);
+		named.makeReadable();
+
+		context.setFeature(JMSLiteMessage.FEATURE_SCHEMA, true);
+		JMSLiteMessage message = new JMSLiteMessage(context);
+		message.write(beans);
+		message.write(new JavaBean("Other", 42, true));
+		message.makeReadable();
+
+		assertTrue(message.getBodyLength() * 3 < named.getBodyLength() * 2);
+		assertArrayEquals(beans, (Object[]) message.read());
+		assertEquals(new JavaBean("Other", 42, true), message.read());
+	}
+
+	/**
+	 * A schema with a different layout is matched by name and type.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void bindsSchemasWithADifferentLayoutByName() throws Exception {
+		BeanDescriptor descriptor = BeanDescriptor.forClass(JavaBean.class);
+		BeanSchema local = descriptor.getSchema();
+		assertSame(local, descriptor.getSchema());
+		assertEquals(local.getHash(), new BeanSchema(local.getClassName(),
+				new String[] { local.getName(0), local.getName(1),
+						local.getName(2) }, new byte[] { local.getType(0),
+						local.getType(1), local.getType(2) }).getHash());
+
+		BeanSchema remote = new BeanSchema(JavaBean.class.getName(),
+				new String[] { "Nickname", "Name", "Age" }, new byte[] {
+						BeanSchema.FIELD_OBJECT, BeanSchema.FIELD_OBJECT,
+						BeanSchema.FIELD_INT });
+		assertFalse(remote.getHash() == local.getHash());
+		remote.bind(descriptor);
+		assertEquals(-1, remote.getIndex(0));
+		assertEquals("Name", descriptor.getName(remote.getIndex(1)));
+		assertEquals("Age", descriptor.getName(remote.getIndex(2)));
+
+		BeanSchema changedTypes = new BeanSchema(JavaBean.class.getName(),
+				new String[] { "Name", "Age" }, new byte[] {
+						BeanSchema.FIELD_INT, BeanSchema.FIELD_LONG });
+		changedTypes.bind(descriptor);
+		assertEquals(-1, changedTypes.getIndex(0));
+		assertEquals(-1, changedTypes.getIndex(1));
+	}
+
+	/**
+	 * Compresses bodies above the threshold when sent.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void compressesBodiesAboveTheThreshold() throws Exception {
+		Object[] beans = new Object[1000];
+		for (int i = 0; i < beans.length; i++)
+			beans[i] = new JavaBean("Name", i, true);
+		MessageContext context = new MessageContext();
+		context.setCompressionThreshold(1024);
+
+		JMSLiteMessage small = new JMSLiteMessage(context);
+		small.write("Small");
+		ActiveMQBytesMessage sent = small.toJMSMessage();
+		assertFalse(sent.propertyExists(JMSLiteMessage.FEATURES_PROPERTY));
+		assertEquals("Small", new JMSLiteMessage(sent, context).read());
+
+		JMSLiteMessage plain = new JMSLiteMessage();
+		plain.write(beans);
+		plain.makeReadable();
+
+		JMSLiteMessage message = new JMSLiteMessage(context);
+		message.write(beans);
+		sent = message.toJMSMessage();
+		assertEquals(JMSLiteMessage.FLAG_COMPRESSED, sent
+				.getIntProperty(JMSLiteMessage.FEATURES_PROPERTY));
+		assertTrue(sent.getContent().length * 4 < plain.getBodyLength());
+
+		JMSLiteMessage received = new JMSLiteMessage(sent, context);
+		assertEquals(0, received.getFeatures());
+		assertArrayEquals(beans, (Object[]) received.read());
+	}
+
+	/**
+	 * A value type with a custom codec.
+	 */
+	public static class Money {
+
+		/** The currency. */
+		private final String currency;
+
+		/** The cents. */
+		private final long cents;
+
+		/**
+		 * Instantiates a new money.
+		 *
+		 * @param currency the currency
+		 * @param cents the cents
+		 */
+		public Money(String currency, long cents) {
+			this.currency = currency;
+			this.cents = cents;
+		}
+
+		/**
+		 * Gets the cents.
+		 *
+		 * @return the cents
+		 */
+		public long getCents() {
+			return cents;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Money))
+				return false;
+			Money other = (Money) obj;
+			return currency.equals(other.currency) && cents == other.cents;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return currency.hashCode() * 31 + (int) cents;
+		}
+	}
+
+	/**
+	 * Writes and reads values with registered codecs.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void writesAndReadsValuesWithRegisteredCodecs() throws Exception {
+		MessageContext context = new MessageContext();
+		context.getCodecs().register(64, Money.class, new Codec<Money>() {
+			public void encode(JMSLiteMessage message, Money value)
+					throws Exception {
+				message.writeUTF(value.currency);
+				message.writeLong(value.cents);
+			}
+
+			public Money decode(JMSLiteMessage message) throws Exception {
+				return new Money(message.readUTF(), message.readLong());
+			}
+		});
+		context.getCodecs().register(65, CharSequence.class,
+				new Codec<CharSequence>() {
+					public void encode(JMSLiteMessage message,
+							CharSequence value) throws Exception {
+						message.write(value.toString());
+					}
+
+					public CharSequence decode(JMSLiteMessage message)
+							throws Exception {
+						return new StringBuilder((String) message.read());
+					}
+				});
+		JMSLiteMessage message = new JMSLiteMessage(context);
+		message.write(new Money("INR", 1050));
+		message.write(new Object[] { new Money("USD", 7), "Plain" });
+		message.write(new StringBuilder("Built"));
+		message.makeReadable();
+
+		assertEquals(64, message.readByte());
+		message.makeReadable();
+		assertEquals(new Money("INR", 1050), message.read());
+		assertArrayEquals(new Object[] { new Money("USD", 7), "Plain" },
+				(Object[]) message.read());
+		assertEquals("Built", message.read().toString());
+	}
+
+	/**
+	 * Rejects codec tags outside the custom range.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCodecTagsOutsideTheCustomRange() throws Exception {
+		new CodecRegistry().register(25, Money.class, null);
+	}
+
+	/**
+	 * Negotiates features with peers.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void negotiatesFeaturesWithPeers() throws Exception {
+		MessageContext context = new MessageContext();
+		context.setFeature(JMSLiteMessage.FEATURE_DICTIONARY, true);
+		context.setFeature(JMSLiteMessage.FEATURE_COMPACT, true);
+		context.setCompressionThreshold(64);
+		context.setPeerFeatures("old-request", JMSLiteMessage.FEATURE_COMPACT);
+		context.setPeerFeatures("new-request",
+				JMSLiteMessage.SUPPORTED_FEATURES);
+
+		assertEquals(JMSLiteMessage.FEATURE_COMPACT, context
+				.getFeatures("old-request"));
+		assertEquals(context.getFeatures(), context.getFeatures("new-request"));
+		assertEquals(0, context.getFeatures("unknown"));
+		assertFalse(context.isCompressionSupported("old-request"));
+		assertTrue(context.isCompressionSupported("new-request"));
+		assertFalse(context.isCompressionSupported("unknown"));
+		assertFalse(context.isLongStringSupported("old-request"));
+		assertTrue(context.isLongStringSupported("new-request"));
+		assertFalse(context.isLongStringSupported("unknown"));
+		assertFalse(context.isOneWayRemoveSupported("old-request"));
+		assertTrue(context.isOneWayRemoveSupported("new-request"));
+		assertFalse(context.isOneWayRemoveSupported("unknown"));
+
+		char[] text = new char[1000];
+		Arrays.fill(text, 'a');
+		JMSLiteMessage message = new JMSLiteMessage(context, context
+				.getFeatures("old-request"));
+		message.setCompressible(false);
+		message.write(new String(text));
+		ActiveMQBytesMessage sent = message.toJMSMessage();
+		assertEquals(JMSLiteMessage.FEATURE_COMPACT, sent
+				.getIntProperty(JMSLiteMessage.FEATURES_PROPERTY));
+		JMSLiteMessage received = new JMSLiteMessage(sent, context);
+		assertEquals(new String(text), received.read());
+		assertFalse(received.hasRemaining());
+	}
+
+	/**
+	 * Sends the features the sender can decode with the message.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void sendsTheAcceptedFeatures() throws Exception {
+		JMSLiteMessage message = new JMSLiteMessage(new MessageContext(), 0);
+		message.write("request");
+		ActiveMQBytesMessage sent = message.toJMSMessage();
+		assertFalse(sent.propertyExists(JMSLiteMessage.ACCEPTS_PROPERTY));
+		assertEquals(0, new JMSLiteMessage(sent).getAccepts());
+
+		message = new JMSLiteMessage(new MessageContext(), 0);
+		message.setAccepts(JMSLiteMessage.SUPPORTED_FEATURES);
+		message.write("request");
+		JMSLiteMessage received = new JMSLiteMessage(message.toJMSMessage());
+		assertEquals(JMSLiteMessage.SUPPORTED_FEATURES, received.getAccepts());
+		assertEquals("request", received.read());
+	}
+
+	/**
+	 * Writes and reads bodies without a JMS message.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void writesAndReadsBodiesWithoutJMSMessages() throws Exception {
+		MessageContext context = new MessageContext();
+		context.setFeature(JMSLiteMessage.FEATURE_DICTIONARY, true);
+		JavaBean bean = new JavaBean("Name", 46, true);
+		JMSLiteMessage message = new JMSLiteMessage(context);
+		message.write(new Object[] { bean, bean });
+		message.write("Hello");
+		byte[] body = message.toByteArray();
+
+		byte[] framed = new byte[body.length + 8];
+		System.arraycopy(body, 0, framed, 4, body.length);
+		JMSLiteMessage fromArray = new JMSLiteMessage(framed, 4, body.length,
+				context, message.getFeatures());
+		assertArrayEquals(new Object[] { bean, bean },
+				(Object[]) fromArray.read());
+		assertEquals("Hello", fromArray.read());
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(body.length);
+		message.writeTo(buffer);
+		buffer.flip();
+		JMSLiteMessage fromBuffer = new JMSLiteMessage(buffer, context,
+				message.getFeatures());
+		assertArrayEquals(new Object[] { bean, bean },
+				(Object[]) fromBuffer.read());
+		assertEquals("Hello", fromBuffer.read());
+
+		ActiveMQBytesMessage sent = message.toJMSMessage();
+		sent.onSend();
+		JMSLiteMessage received = new JMSLiteMessage(sent, context);
+		assertEquals(JMSLiteMessage.FEATURE_DICTIONARY, received.getFeatures());
+		assertArrayEquals(new Object[] { bean, bean },
+				(Object[]) received.read());
+		assertEquals("Hello", received.read());
+	}
+
+	/**
+	 * Rejects lengths that do not fit into the message before allocating.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void rejectsLengthsBeyondTheEndOfTheMessage() throws Exception {
+		List<Object> values = new ArrayList<Object>();
+		values.add(new int[] { 1, 2, 3 });
+		values.add(new long[] { 1, 2, 3 });
+		values.add(new char[] { 'a', 'b' });
+		values.add(new Object[] { "a", "b" });
+		values.add(new ArrayList<Object>(Arrays.asList("a", "b")));
+		values.add(new HashMap<Object, Object>(Collections.singletonMap("a",
+				"b")));
+		int rejected = 0;
+		for (Object value : values) {
+			JMSLiteMessage message = new JMSLiteMessage();
+			message.write(value);
+			byte[] body = message.toByteArray();
+			body[1] = 0x7f;
+			body[2] = body[3] = body[4] = (byte) 0xff;
+			try {
+				new JMSLiteMessage(body, 0, body.length, MessageContext
+						.getDefault(), 0).read();
+			} catch (IllegalArgumentException e) {
+				rejected++;
+			}
+		}
+		assertEquals(values.size(), rejected);
+
+		ActiveMQBytesMessage sent = new ActiveMQBytesMessage();
+		sent.setIntProperty(JMSLiteMessage.FEATURES_PROPERTY,
+				JMSLiteMessage.FLAG_COMPRESSED);
+		sent.reset();
+		sent.setContent(new ByteSequence(new byte[] { 0x7f, -1, -1, -1, 0 }));
+		try {
+			new JMSLiteMessage(sent, MessageContext.getDefault());
+			fail("A compressed size beyond the limit is rejected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Rejects enum ordinals outside the constants of the enum.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void rejectsUnknownEnumOrdinals() throws Exception {
+		int[] ordinals = new int[] { -1, Color.values().length };
+		for (int ordinal : ordinals) {
+			JMSLiteMessage message = new JMSLiteMessage();
+			message.write(Color.RED);
+			byte[] body = message.toByteArray();
+			ByteBuffer.wrap(body).putInt(body.length - 4, ordinal);
+			try {
+				new JMSLiteMessage(body, 0, body.length, MessageContext
+						.getDefault(), 0).read();
+				fail("Ordinal " + ordinal + " should be rejected");
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Rejects names that refer to names not read before.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void rejectsUnknownNameReferences() throws Exception {
+		MessageContext context = new MessageContext();
+		context.setFeature(JMSLiteMessage.FEATURE_DICTIONARY, true);
+		JMSLiteMessage message = new JMSLiteMessage(context);
+		message.write(Color.RED);
+		byte[] body = message.toByteArray();
+		assertEquals(0, body[1]);
+		body[1] = 1;
+		try {
+			new JMSLiteMessage(body, 0, body.length, context, message
+					.getFeatures()).read();
+			fail("A reference to an unknown name should be rejected");
+		} catch (IOException e) {
+			assertEquals("Invalid name reference 1", e.getMessage());
+		}
+	}
+
+	/**
+	 * Rejects beans that refer to schemas not read before.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void rejectsUnknownSchemaReferences() throws Exception {
+		MessageContext context = new MessageContext();
+		context.setFeature(JMSLiteMessage.FEATURE_SCHEMA, true);
+		JMSLiteMessage message = new JMSLiteMessage(context);
+		message.write(new JavaBean("Name", 46, true));
+		byte[] body = message.toByteArray();
+		assertEquals(0, body[1]);
+		body[1] = 1;
+		try {
+			new JMSLiteMessage(body, 0, body.length, context, message
+					.getFeatures()).read();
+			fail("A reference to an unknown schema should be rejected");
+		} catch (IOException e) {
+			assertEquals("Invalid schema reference 1", e.getMessage());
+		}
+	}
+
+	/**
+	 * References share repeated objects.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void referencesShareRepeatedObjects() throws Exception {
+		JavaBean bean = new JavaBean("Name", 46, true);
+		List<Object> list = new ArrayList<Object>();
+		Object[] beans = new Object[500];
+		for (int i = 0; i < beans.length; i++)
+			beans[i] = i % 2 == 0 ? bean : list;
+
+		JMSLiteMessage plain = new JMSLiteMessage();
+		plain.write(beans);
+		plain.makeReadable();
+
+		for (int schema = 0; schema < 2; schema++) {
+			MessageContext context = new MessageContext();
+			context.setFeature(JMSLiteMessage.FEATURE_REFERENCES, true);
+			context.setFeature(JMSLiteMessage.FEATURE_SCHEMA, schema == 1);
+			JMSLiteMessage message = new JMSLiteMessage(context);
+			message.write(beans);
+			message.write(bean);
+			message.makeReadable();
+
+			assertTrue(message.getBodyLength() * 3 < plain.getBodyLength());
+			Object[] actual = (Object[]) message.read();
+			assertArrayEquals(beans, actual);
+			for (int i = 2; i < actual.length; i++)
+				assertSame(actual[i % 2], actual[i]);
+			assertSame(actual[0], message.read());
+		}
+	}
+
+	/**
+	 * References allow cyclic graphs.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void referencesAllowCyclicGraphs() throws Exception {
+		Node first = new Node();
+		first.setName("first");
+		Node second = new Node();
+		second.setName("second");
+		first.setNext(second);
+		second.setNext(first);
+		List<Object> list = new ArrayList<Object>();
+		list.add(first);
+		list.add(list);
+
+		for (int schema = 0; schema < 2; schema++) {
+			MessageContext context = new MessageContext();
+			context.setFeature(JMSLiteMessage.FEATURE_REFERENCES, true);
+			context.setFeature(JMSLiteMessage.FEATURE_SCHEMA, schema == 1);
+			JMSLiteMessage message = new JMSLiteMessage(context);
+			message.write(list);
+			message.makeReadable();
+
+			List<?> actual = (List<?>) message.read();
+			assertSame(actual, actual.get(1));
+			Node node = (Node) actual.get(0);
+			assertEquals("first", node.getName());
+			assertEquals("second", node.getNext().getName());
+			assertSame(node, node.getNext().getNext());
+		}
+	}
+
+	/**
+	 * Writes and reads enums, chars, big numbers, dates and UUIDs.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void writesAndReadsEnumsCharsNumbersDatesAndUUIDs()
+			throws Exception {
+		Timestamp timestamp = new Timestamp(-1234567L);
+		timestamp.setNanos(123456789);
+		Object[] expected = new Object[] { Color.RED, Color.GREEN, 'x',
+				'\u0b85', new BigInteger("-123456789012345678901234567890"),
+				new BigDecimal("12345.6789"), new BigDecimal("-1E+40"),
+				new Date(-1L), new Date(1288000000123L), timestamp,
+				UUID.randomUUID() };
+		for (boolean compact : new boolean[] { false, true }) {
+			MessageContext context = new MessageContext();
+			context.setFeature(JMSLiteMessage.FEATURE_COMPACT, compact);
+			context.setFeature(JMSLiteMessage.FEATURE_DICTIONARY, compact);
+			JMSLiteMessage message = new JMSLiteMessage(context);
+			message.write(expected);
+			message.makeReadable();
+
+			Object[] actual = (Object[]) message.read();
+			assertArrayEquals(expected, actual);
+			assertSame(Color.GREEN, actual[1]);
+			assertSame(Date.class, actual[7].getClass());
+			assertEquals(123456789, ((Timestamp) actual[9]).getNanos());
+		}
+
+		JMSLiteMessage message = new JMSLiteMessage();
+		message.write(Color.RED);
+		message.write('x');
+		message.write(UUID.randomUUID());
+		message.makeReadable();
+		assertEquals(1 + 2 + Color.class.getName().length() + 4 + 1 + 2 + 1
+				+ 16, message.getBodyLength());
+	}
+
 	/**
 	 * Writes and reads arrays of values.
 	 *
@@ -199,6 +894,44 @@ public class JMSLiteMessageTest {
 		assertArrayEquals(expected, actual);
 	}
 
+	/**
+	 * Writes and reads arrays of primitives.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void writesAndReadsArraysOfPrimitives() throws Exception {
+		JMSLiteMessage message = new JMSLiteMessage();
+
+		message.write(new int[] { 1, -2, Integer.MAX_VALUE });
+		message.write(new long[] { 1, Long.MIN_VALUE });
+		message.write(new double[] { 1.5, -2.25 });
+		message.write(new float[] { 1.5f });
+		message.write(new short[] { 12, -12 });
+		message.write(new byte[] { 65, 0, -1 });
+		message.write(new boolean[] { true, false, true });
+		message.write(new char[] { 'a', '\u0b85' });
+		message.write(new int[0]);
+
+		message.makeReadable();
+
+		assertArrayEquals(new int[] { 1, -2, Integer.MAX_VALUE },
+				(int[]) message.read());
+		assertArrayEquals(new long[] { 1, Long.MIN_VALUE }, (long[]) message
+				.read());
+		assertTrue(Arrays.equals(new double[] { 1.5, -2.25 },
+				(double[]) message.read()));
+		assertTrue(Arrays.equals(new float[] { 1.5f }, (float[]) message
+				.read()));
+		assertArrayEquals(new short[] { 12, -12 }, (short[]) message.read());
+		assertArrayEquals(new byte[] { 65, 0, -1 }, (byte[]) message.read());
+		assertTrue(Arrays.equals(new boolean[] { true, false, true },
+				(boolean[]) message.read()));
+		assertArrayEquals(new char[] { 'a', '\u0b85' }, (char[]) message
+				.read());
+		assertEquals(0, ((int[]) message.read()).length);
+	}
+
 	/**
 	 * Writes and reads beans.
 	 *
@@ -218,6 +951,29 @@ public class JMSLiteMessageTest {
 		assertEquals(expected, actual);
 	}
 
+	/**
+	 * Writes and reads beans with generated accessors.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void writesAndReadsBeansWithGeneratedAccessors() throws Exception {
+		MessageContext context = new MessageContext();
+		context.setUseGeneratedAccessors(true);
+		JMSLiteMessage message = new JMSLiteMessage(context);
+
+		Object expected = new JavaBean("Dakshinamurthy Karra", 46, true);
+		message.write(expected);
+		message.write(new JavaBean(null, 0, false));
+
+		message.makeReadable();
+
+		assertEquals(expected, message.read());
+		assertEquals(new JavaBean(null, 0, false), message.read());
+		assertFalse(context.getAccessor(BeanDescriptor
+				.forClass(JavaBean.class)) instanceof ReflectiveBeanAccessor);
+	}
+
 	/**
 	 * Writes and reads boolean.
 	 *
@@ -234,6 +990,35 @@ public class JMSLiteMessageTest {
 		assertEquals("Should read written boolean", false, message.read());
 	}
 
+	/**
+	 * Writes and reads collections and maps.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void writesAndReadsCollectionsAndMaps() throws Exception {
+		JMSLiteMessage message = new JMSLiteMessage();
+		List<Object> list = new ArrayList<Object>();
+		list.add(new JavaBean("Name", 46, true));
+		list.add(null);
+		list.add("Hello");
+		Set<String> set = new TreeSet<String>(Arrays.asList("b", "a"));
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("list", list);
+		map.put("set", set);
+
+		message.write(list);
+		message.write(set);
+		message.write(map);
+		message.write(new ArrayList<Object>());
+
+		message.makeReadable();
+		assertEquals(list, message.read());
+		assertEquals(set, message.read());
+		assertEquals(map, message.read());
+		assertEquals(new ArrayList<Object>(), message.read());
+	}
+
 	/**
 	 * Writes and reads double.
 	 *
@@ -286,6 +1071,58 @@ public class JMSLiteMessageTest {
 		assertEquals("Should read written integer", 2, message.read());
 	}
 
+	/**
+	 * Writes and reads strings longer than 64K.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void writesAndReadsLongStrings() throws Exception {
+		StringBuilder ascii = new StringBuilder();
+		while (ascii.length() < 1024 * 1024)
+			ascii.append("{\"report\": \"caf\u00e9\", \"line\": ").append(
+					ascii.length()).append("}\n");
+		StringBuilder unicode = new StringBuilder();
+		while (unicode.length() < 70000)
+			unicode.append("\u0b85\u0b86 text ");
+		JMSLiteMessage message = new JMSLiteMessage();
+		message.write(ascii.toString());
+		message.write(unicode.toString());
+		message.write("Short");
+
+		message.makeReadable();
+		assertEquals(ascii.toString(), message.read());
+		assertEquals(unicode.toString(), message.read());
+		assertEquals("Short", message.read());
+	}
+
+	/**
+	 * Writes strings that fit into writeUTF as STRING and strings beyond 64K
+	 * only to peers that decode them.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void writesLongStringsOnlyWhenTheEncodingDoesNotFit()
+			throws Exception {
+		char[] text = new char[65535];
+		Arrays.fill(text, 'a');
+		JMSLiteMessage message = new JMSLiteMessage();
+		message.write(new String(text));
+		message.makeReadable();
+		assertEquals(1 + 2 + 65535, message.getBodyLength());
+		assertEquals(new String(text), message.read());
+
+		message = new JMSLiteMessage();
+		message.setLongStrings(false);
+		message.write(new String(text, 0, 30000));
+		try {
+			message.write(new String(text) + "\u00e9");
+			fail("Strings beyond 64K need LONG_STRING");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
 	/**
 	 * Writes and reads string.
 	 *
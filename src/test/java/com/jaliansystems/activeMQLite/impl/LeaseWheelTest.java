@@ -0,0 +1,106 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class LeaseWheelTest.
+ */
+public class LeaseWheelTest {
+
+	/**
+	 * Gives out handles when the tick of their expiry has passed.
+	 */
+	@Test
+	public void givesOutHandlesWhenTheirTickHasPassed() {
+		LeaseWheel wheel = new LeaseWheel(100, 1000, 10000);
+		ObjectHandle first = handle(1);
+		ObjectHandle second = handle(2);
+		assertTrue(wheel.schedule(first, 10250));
+		assertTrue(wheel.schedule(second, 10900));
+
+		assertTrue(wheel.advance(10200).isEmpty());
+		assertEquals(Arrays.asList(first), wheel.advance(10300));
+		assertTrue(wheel.advance(10800).isEmpty());
+		assertEquals(Arrays.asList(second), wheel.advance(10900));
+		assertTrue(wheel.advance(20000).isEmpty());
+	}
+
+	/**
+	 * Gives out handles whose leases have already ended at the next tick.
+	 */
+	@Test
+	public void givesOutEndedLeasesAtTheNextTick() {
+		LeaseWheel wheel = new LeaseWheel(100, 1000, 10000);
+		ObjectHandle handle = handle(1);
+		wheel.schedule(handle, 5000);
+		assertEquals(Arrays.asList(handle), wheel.advance(10100));
+	}
+
+	/**
+	 * Gives out handles whose leases end beyond the wheel at its last tick,
+	 * to be scheduled again.
+	 */
+	@Test
+	public void givesOutLeasesBeyondTheWheelAtItsLastTick() {
+		LeaseWheel wheel = new LeaseWheel(100, 1000, 10000);
+		ObjectHandle handle = handle(1);
+		wheel.schedule(handle, 50000);
+		assertTrue(wheel.advance(11000).isEmpty());
+		assertEquals(Arrays.asList(handle), wheel.advance(11100));
+	}
+
+	/**
+	 * Gives out all handles of slots passed in one step.
+	 */
+	@Test
+	public void givesOutAllSlotsPassedInOneStep() {
+		LeaseWheel wheel = new LeaseWheel(100, 1000, 10000);
+		for (int i = 1; i <= 10; i++)
+			wheel.schedule(handle(i), 10000 + i * 100);
+		assertEquals(10, wheel.advance(100000).size());
+	}
+
+	/**
+	 * Takes out the handles when closed and rejects new ones.
+	 */
+	@Test
+	public void takesOutTheHandlesWhenClosed() {
+		LeaseWheel wheel = new LeaseWheel(100, 1000, 10000);
+		ObjectHandle first = handle(1);
+		ObjectHandle second = handle(2);
+		wheel.schedule(first, 10500);
+		wheel.schedule(second, 10900);
+		List<ObjectHandle> handles = wheel.close();
+		assertEquals(2, handles.size());
+		assertTrue(handles.contains(first) && handles.contains(second));
+		assertFalse(wheel.schedule(first, 10500));
+		assertTrue(wheel.advance(20000).isEmpty());
+	}
+
+	private static ObjectHandle handle(int id) {
+		return new ObjectHandle(id, null, Runnable.class, "vm://test", "queue");
+	}
+}
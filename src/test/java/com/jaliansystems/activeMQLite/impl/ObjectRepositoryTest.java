@@ -16,24 +16,52 @@
 package com.jaliansystems.activeMQLite.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.awt.event.MouseListener;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.SortedSet;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.jaliansystems.activeMQLite.Codec;
+import com.jaliansystems.activeMQLite.impl.JMSLiteMessageTest.Money;
+
 // TODO: Auto-generated Javadoc
 /**
  * The Class ObjectRepositoryTest.
  */
 public class ObjectRepositoryTest {
 
+	/**
+	 * An interface extending an exported interface.
+	 */
+	public interface ISubObjectRepositoryTest extends IObjectRepositoryTest {
+	}
+
+	/**
+	 * An interface taking an array of exported objects.
+	 */
+	public interface IGreeter {
+
+		/**
+		 * Greet.
+		 *
+		 * @param values the values
+		 * @return the greeting
+		 */
+		String greet(IObjectRepositoryTest[] values);
+	}
+
 	/**
 	 * The Class ImplObject.
 	 */
@@ -66,6 +94,23 @@ public class ObjectRepositoryTest {
 		public Object takeThis(ObjectRepository localObjectRepository) {
 			return "TakeThisWithLOR";
 		}
+
+		/* (non-Javadoc)
+		 * @see com.jaliansystems.activeMQLite.impl.IObjectRepositoryTest#first(java.util.SortedSet)
+		 */
+		public String first(SortedSet<String> values) {
+			return values.first();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.jaliansystems.activeMQLite.impl.IObjectRepositoryTest#sum(int[])
+		 */
+		public int sum(int[] values) {
+			int sum = 0;
+			for (int value : values)
+				sum += value;
+			return sum;
+		}
 	}
 
 	/** The finalize called. */
@@ -83,6 +128,9 @@ public class ObjectRepositoryTest {
 	/** The impl. */
 	private ImplObject impl;
 
+	/** The time of the repositories created by clockedRepository(). */
+	private long time = 1000000;
+
 	/**
 	 * Destroy with proxies.
 	 *
@@ -148,6 +196,281 @@ public class ObjectRepositoryTest {
 		assertEquals(id, (args[0]));
 	}
 
+	/**
+	 * Handles are created once per object.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void handlesAreCreatedOncePerObject() throws Exception {
+		final ImplObject[] objects = new ImplObject[1000];
+		for (int i = 0; i < objects.length; i++)
+			objects[i] = new ImplObject();
+		final ObjectHandle[][] created = new ObjectHandle[4][objects.length];
+		Thread[] threads = new Thread[created.length];
+		for (int t = 0; t < threads.length; t++) {
+			final ObjectHandle[] mine = created[t];
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < objects.length; i++)
+						mine[i] = repo.createHandle(objects[i],
+								IObjectRepositoryTest.class);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		for (int i = 0; i < objects.length; i++) {
+			for (int t = 1; t < created.length; t++)
+				assertTrue(created[0][i] == created[t][i]);
+			assertTrue(repo.getObject(created[0][i]) == objects[i]);
+		}
+		ObjectHandle handle = created[0][0];
+		for (int t = 0; t < created.length; t++) {
+			assertNotNull(repo.getObject(handle));
+			assertTrue(repo.removeObject(handle));
+		}
+		assertNull(repo.getObject(handle));
+		ObjectHandle other = repo.createHandle(objects[0],
+				IObjectRepositoryTest.class);
+		assertFalse(other.getID() == handle.getID());
+	}
+
+	/**
+	 * Handles are counted correctly when created and removed concurrently.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void handlesAreRetainedAndReleasedConcurrently() throws Exception {
+		final ImplObject object = new ImplObject();
+		final ObjectHandle held = repo.createHandle(object,
+				IObjectRepositoryTest.class);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						ObjectHandle handle = repo.createHandle(object,
+								IObjectRepositoryTest.class);
+						repo.removeObject(handle);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(1, held.getRetainCount());
+		assertTrue(repo.removeObject(held));
+		assertEquals(0, held.getRetainCount());
+		assertNull(repo.getObject(held));
+		assertFalse(held.tryRetain());
+
+		threads = new Thread[8];
+		final ImplObject churned = new ImplObject();
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						ObjectHandle handle = repo.createHandle(churned,
+								IObjectRepositoryTest.class);
+						assertTrue(repo.getObject(handle) == churned);
+						repo.removeObject(handle);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		ObjectHandle handle = repo.createHandle(churned,
+				IObjectRepositoryTest.class);
+		assertEquals(1, handle.getRetainCount());
+	}
+
+	/**
+	 * Resolves types to the exported interfaces.
+	 */
+	@Test
+	public void resolvesExportedInterfaces() {
+		assertNull(repo.getExportedInterface(IObjectRepositoryTest.class));
+		repo.exportInterfaces(IObjectRepositoryTest.class);
+		assertEquals(IObjectRepositoryTest.class, repo
+				.getExportedInterface(IObjectRepositoryTest.class));
+		assertEquals(IObjectRepositoryTest.class, repo
+				.getExportedInterface(ISubObjectRepositoryTest.class));
+		assertNull(repo.getExportedInterface(ImplObject.class));
+		assertNull(repo.getExportedInterface(Runnable.class));
+		repo.exportInterfaces(ISubObjectRepositoryTest.class);
+		assertEquals(ISubObjectRepositoryTest.class, repo
+				.getExportedInterface(ISubObjectRepositoryTest.class));
+	}
+
+	/**
+	 * Passes arrays of exported objects as handles.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void passesArraysOfExportedObjectsAsHandles() throws Exception {
+		repo.exportInterfaces(IObjectRepositoryTest.class);
+		IGreeter greeter = new IGreeter() {
+			public String greet(IObjectRepositoryTest[] values) {
+				return values[0].getGreeting() + values.length;
+			}
+		};
+		Object[] args = new Object[] { new IObjectRepositoryTest[] { impl,
+				null } };
+		repo.encodeMethodCall(message, repo.createHandle(greeter,
+				IGreeter.class), IGreeter.class.getMethod("greet",
+				new Class[] { IObjectRepositoryTest[].class }), args);
+		Object[] handles = (Object[]) args[0];
+		assertEquals(repo.createHandle(impl, IObjectRepositoryTest.class),
+				handles[0]);
+		assertNull(handles[1]);
+
+		message.makeReadable();
+		assertEquals("Hello World2", repo.invoke(message));
+	}
+
+	/**
+	 * Handles expire when their leases are not renewed.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void leasesExpireUnlessRenewed() throws Exception {
+		ObjectRepository repo = clockedRepository();
+		repo.setLeaseDuration(1000, 100);
+		ObjectHandle renewed = repo.createHandle(impl,
+				IObjectRepositoryTest.class);
+		ObjectHandle abandoned = repo.createHandle(new ImplObject(),
+				IObjectRepositoryTest.class);
+		repo.createHandle(impl, IObjectRepositoryTest.class);
+		long now = time;
+		assertEquals(0, repo.expireLeases(now + 500));
+
+		time += 200;
+		repo.renewLeases(new int[] { renewed.getID(), 12345 });
+		assertEquals(1, repo.expireLeases(now + 1150));
+		assertNull(repo.getObject(abandoned));
+		assertTrue(repo.getObject(renewed) == impl);
+		assertEquals(1, repo.getExpiredHandleCount());
+
+		assertEquals(1, repo.expireLeases(now + 5000));
+		assertNull(repo.getObject(renewed));
+		assertEquals(2, repo.getExpiredHandleCount());
+		assertFalse(repo.removeObject(renewed));
+	}
+
+	/**
+	 * Handles leased before the lease duration changes still expire.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void leasesSurviveAChangeOfTheDuration() throws Exception {
+		ObjectRepository repo = clockedRepository();
+		repo.setLeaseDuration(1000, 100);
+		ObjectHandle handle = repo.createHandle(impl,
+				IObjectRepositoryTest.class);
+		try {
+			repo.setLeaseDuration(2000, 0);
+			fail("A lease needs a sweep interval");
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(1000, repo.getLeaseDuration());
+
+		repo.setLeaseDuration(2000, 100);
+		assertEquals(0, repo.expireLeases(time + 500));
+		assertEquals(1, repo.expireLeases(time + 1500));
+		assertNull(repo.getObject(handle));
+	}
+
+	/**
+	 * The handle of a published object is leased only once it is looked up.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void publishedHandlesAreLeasedWhenLookedUp() throws Exception {
+		ObjectRepository repo = clockedRepository();
+		repo.setLeaseDuration(1000, 100);
+		ObjectHandle published = repo.publish(impl,
+				IObjectRepositoryTest.class);
+		time += 5000;
+		assertEquals(0, repo.expireLeases(time));
+		assertTrue(repo.getObject(published) == impl);
+
+		ObjectHandle handle = repo.lookup(IObjectRepositoryTest.class);
+		assertTrue(handle == published);
+		assertEquals(0, repo.expireLeases(time + 500));
+		assertEquals(1, repo.expireLeases(time + 1500));
+		assertNull(repo.getObject(handle));
+		assertEquals(1, repo.getExpiredHandleCount());
+
+		handle = repo.lookup(IObjectRepositoryTest.class);
+		assertTrue(repo.getObject(handle) == impl);
+	}
+
+	/**
+	 * Handles are leased again when leasing is enabled again.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void leasesStartAgainWhenLeasingIsEnabledAgain() throws Exception {
+		ObjectRepository repo = clockedRepository();
+		repo.setLeaseDuration(1000, 100);
+		ObjectHandle handle = repo.createHandle(impl,
+				IObjectRepositoryTest.class);
+		repo.setLeaseDuration(0, 0);
+		assertEquals(0, repo.expireLeases(time + 1500));
+
+		repo.setLeaseDuration(1000, 100);
+		time += 2000;
+		assertEquals(0, repo.expireLeases(time));
+		repo.createHandle(impl, IObjectRepositoryTest.class);
+		assertEquals(0, repo.expireLeases(time + 500));
+		assertEquals(1, repo.expireLeases(time + 1500));
+		assertNull(repo.getObject(handle));
+	}
+
+	/**
+	 * Creates a repository whose lease clock is {@link #time}.
+	 *
+	 * @return the repository
+	 */
+	private ObjectRepository clockedRepository() {
+		return new ObjectRepository("testing", "queue") {
+			@Override
+			protected long currentTimeMillis() {
+				return time;
+			}
+		};
+	}
+
+	/**
+	 * Handles of other repositories are not found.
+	 */
+	@Test
+	public void handlesOfOtherRepositoriesAreNotFound() {
+		ObjectHandle handle = repo.createHandle(impl,
+				IObjectRepositoryTest.class);
+		ObjectHandle remote = new ObjectHandle(handle.getID(), null,
+				IObjectRepositoryTest.class, "testing", "other-queue");
+
+		assertNull(repo.getObject(remote));
+		assertFalse(repo.removeObject(remote));
+		assertTrue(repo.getObject(handle) == impl);
+	}
+
 	/**
 	 * Invoke a method.
 	 *
@@ -192,6 +515,29 @@ public class ObjectRepositoryTest {
 
 	}
 
+	/**
+	 * Caches the methods resolved for calls by name.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void cachesResolvedMethods() throws Exception {
+		ObjectHandle handle = repo.createHandle(impl,
+				IObjectRepositoryTest.class);
+		Object[][] calls = new Object[][] { {}, { 1 }, {}, { 2 } };
+		for (Object[] args : calls) {
+			message = new JMSLiteMessage();
+			message.write(handle);
+			message.write("getGreeting");
+			message.write(args);
+			message.makeReadable();
+			assertEquals(args.length == 0 ? impl.getGreeting() : impl
+					.getGreeting((Integer) args[0]), repo.invoke(message));
+		}
+		assertEquals(2, repo.getMethodCacheMisses());
+		assertEquals(2, repo.getMethodCacheHits());
+	}
+
 	/**
 	 * Invoke methods with object parameters.
 	 *
@@ -236,6 +582,47 @@ public class ObjectRepositoryTest {
 
 	}
 
+	/**
+	 * Invoke methods with sorted collection parameters.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void invokeMethodsWithSortedCollectionParameters() throws Exception {
+		repo.publish(impl, IObjectRepositoryTest.class);
+		ObjectHandle handle = repo.createHandle(impl,
+				IObjectRepositoryTest.class);
+		message.write(handle);
+		message.write("first");
+		message.write(new Object[] { new HashSet<String>(Arrays.asList("b",
+				"c", "a")) });
+
+		message.makeReadable();
+
+		assertEquals("a", repo.invoke(message));
+	}
+
+	/**
+	 * Invoke methods with primitive array parameters.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void invokeMethodsWithPrimitiveArrayParameters() throws Exception {
+		repo.publish(impl, IObjectRepositoryTest.class);
+		ObjectHandle handle = repo.createHandle(impl,
+				IObjectRepositoryTest.class);
+		message.write(handle);
+		message.write("sum");
+		message.write(new Object[] { new int[] { 1, 2, 3 } });
+
+		message.makeReadable();
+
+		Object retval = repo.invoke(message);
+
+		assertEquals(6, retval);
+	}
+
 	/**
 	 * Invokes method with parameters with published interfaces.
 	 *
@@ -256,6 +643,108 @@ public class ObjectRepositoryTest {
 		assertEquals("TakeThisWithLORT", ret);
 	}
 
+	/**
+	 * Invokes methods with lazy arguments.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void invokesMethodsWithLazyArguments() throws Exception {
+		repo.publish(impl, IObjectRepositoryTest.class);
+		ObjectHandle handle = repo.createHandle(impl,
+				IObjectRepositoryTest.class);
+		MessageContext context = new MessageContext();
+		context.setFeature(JMSLiteMessage.FEATURE_LAZY_ARGS, true);
+
+		message = new JMSLiteMessage(context);
+		repo.encodeMethodCall(message, handle, impl.getClass().getMethod(
+				"sum", new Class[] { int[].class }), new int[] { 1, 2, 3 });
+		message.makeReadable();
+		assertEquals(6, repo.invoke(message));
+
+		message = new JMSLiteMessage(context);
+		repo.encodeMethodCall(message, handle, impl.getClass().getMethod(
+				"getGreeting", new Class[] { Integer.TYPE }), 0);
+		message.makeReadable();
+		assertEquals(handle, message.read());
+		assertEquals("getGreeting", message.read());
+		assertTrue(Arrays.equals(new Object[] { 0 }, (Object[]) message
+				.read()));
+	}
+
+	/**
+	 * Invokes methods by their id.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void invokesMethodsById() throws Exception {
+		ObjectHandle handle = repo.createHandle(impl,
+				IObjectRepositoryTest.class);
+		MessageContext context = new MessageContext();
+		context.setFeature(JMSLiteMessage.FEATURE_METHOD_IDS, true);
+		Method method = IObjectRepositoryTest.class.getMethod("first",
+				new Class[] { SortedSet.class });
+		MethodTable table = repo.getMethodTable(IObjectRepositoryTest.class);
+		assertEquals(6, table.size());
+		int index = table.indexOf(method);
+		assertEquals(method, table.getMethod(index, table
+				.getSignatureHash(index)));
+
+		message = new JMSLiteMessage(context);
+		repo.encodeMethodCall(message, handle, method, new HashSet<String>(
+				Arrays.asList("b", "c", "a")));
+		message.makeReadable();
+		assertEquals(handle, message.read());
+		assertEquals(index, message.readMethodId()[0]);
+
+		message = new JMSLiteMessage(context);
+		repo.encodeMethodCall(message, handle, method, new HashSet<String>(
+				Arrays.asList("b", "c", "a")));
+		message.makeReadable();
+		assertEquals("a", repo.invoke(message));
+
+		message = new JMSLiteMessage(context);
+		message.write(handle);
+		message.writeMethodId(index, 0);
+		message.write(new Object[] { null });
+		message.makeReadable();
+		try {
+			repo.invoke(message);
+			fail("Expected NoSuchMethodError");
+		} catch (NoSuchMethodError e) {
+		}
+	}
+
+	/**
+	 * Rejects calls before decoding the arguments.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test(expected = NoSuchMethodError.class)
+	public void rejectsCallsBeforeDecodingTheArguments() throws Exception {
+		repo.publish(impl, IObjectRepositoryTest.class);
+		MessageContext context = new MessageContext();
+		context.setFeature(JMSLiteMessage.FEATURE_LAZY_ARGS, true);
+		context.getCodecs().register(64, Money.class, new Codec<Money>() {
+			public void encode(JMSLiteMessage message, Money value)
+					throws Exception {
+				message.writeLong(value.getCents());
+			}
+
+			public Money decode(JMSLiteMessage message) throws Exception {
+				throw new IllegalStateException("Argument decoded");
+			}
+		});
+		message = new JMSLiteMessage(context);
+		message.write(repo.createHandle(impl, IObjectRepositoryTest.class));
+		message.write("getGreeting");
+		message.writeArguments(new Object[] { new Money("INR", 1) });
+		message.makeReadable();
+
+		repo.invoke(message);
+	}
+
 	/**
 	 * Looking up an unpublished interface returns null.
 	 */
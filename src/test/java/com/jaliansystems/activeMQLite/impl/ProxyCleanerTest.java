@@ -0,0 +1,96 @@
+/*
+ *   Copyright 2010 Jalian Systems Pvt. Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jaliansystems.activeMQLite.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ProxyCleanerTest.
+ */
+public class ProxyCleanerTest {
+
+	/**
+	 * Releases the handles of collected proxies.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void releasesCollectedProxies() throws Exception {
+		final List<ObjectHandle> released = new CopyOnWriteArrayList<ObjectHandle>();
+		ProxyCleaner cleaner = new ProxyCleaner(null, "test-proxy-cleaner") {
+			@Override
+			protected void release(ObjectHandle handle) throws Exception {
+				released.add(handle);
+			}
+		};
+		ObjectHandle handle = new ObjectHandle(1, null, Runnable.class,
+				"vm://test", "queue");
+		Object live = new Object();
+		cleaner.track(live, new ObjectHandle(2, null, Runnable.class,
+				"vm://test", "queue"));
+		cleaner.track(new Object(), handle);
+		for (int i = 0; i < 50 && released.isEmpty(); i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		for (int i = 0; i < 50 && cleaner.getPendingCount() > 0; i++)
+			Thread.sleep(100);
+		assertEquals(1, released.size());
+		assertTrue(released.get(0) == handle);
+		assertEquals(0, cleaner.getPendingCount());
+		assertEquals(1, cleaner.getTrackedCount());
+		assertTrue(live != null);
+	}
+
+	/**
+	 * Starts the thread with the first proxy and ends it on stop.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void threadRunsFromTheFirstProxyUntilStopped() throws Exception {
+		ProxyCleaner cleaner = new ProxyCleaner(null, "test-proxy-cleaner-stop");
+		assertFalse(hasThread("test-proxy-cleaner-stop"));
+		Object live = new Object();
+		cleaner.track(live, new ObjectHandle(1, null, Runnable.class,
+				"vm://test", "queue"));
+		assertTrue(hasThread("test-proxy-cleaner-stop"));
+		assertEquals(1, cleaner.getTrackedCount());
+		cleaner.stop();
+		for (int i = 0; i < 50 && hasThread("test-proxy-cleaner-stop"); i++)
+			Thread.sleep(100);
+		assertFalse(hasThread("test-proxy-cleaner-stop"));
+		cleaner.track(live, new ObjectHandle(2, null, Runnable.class,
+				"vm://test", "queue"));
+		assertEquals(0, cleaner.getTrackedCount());
+		assertFalse(hasThread("test-proxy-cleaner-stop"));
+	}
+
+	private static boolean hasThread(String name) {
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			if (name.equals(thread.getName()) && thread.isAlive())
+				return true;
+		return false;
+	}
+}